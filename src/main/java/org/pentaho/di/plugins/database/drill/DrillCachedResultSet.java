@@ -0,0 +1,1383 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DrillCachedResultSet is a read-only, scrollable result set over rows held in memory. It is what the metadata cache
+ * hands out in place of the Drill result sets of DatabaseMetaData calls (see {@link DrillMetadataCache}): the rows are
+ * read from Drill once into {@link Rows}, and every hit gets its own DrillCachedResultSet over them, with its own
+ * cursor.
+ */
+final class DrillCachedResultSet implements ResultSet {
+
+  /**
+   * The columns and rows of a result set, read into memory. Rows are not modified once read, so they can be shared by
+   * many result sets.
+   */
+  static final class Rows {
+
+    final String[] labels;
+
+    final int[] types;
+
+    final String[] typeNames;
+
+    final List<Object[]> rows;
+
+    /**
+     * Instantiates the rows of a result set.
+     *
+     * @param labels    the column labels
+     * @param types     the JDBC types of the columns
+     * @param typeNames the database type names of the columns
+     * @param rows      the rows, an array of column values each
+     */
+    Rows( String[] labels, int[] types, String[] typeNames, List<Object[]> rows ) {
+      this.labels = labels;
+      this.types = types;
+      this.typeNames = typeNames;
+      this.rows = rows;
+    }
+
+    /**
+     * Reads all rows of a result set and closes it.
+     *
+     * @param resultSet the result set
+     * @return the rows
+     * @throws SQLException if the result set cannot be read
+     */
+    static Rows read( ResultSet resultSet ) throws SQLException {
+      try {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int count = metaData.getColumnCount();
+        String[] labels = new String[count];
+        int[] types = new int[count];
+        String[] typeNames = new String[count];
+        for ( int i = 0; i < count; i++ ) {
+          labels[i] = metaData.getColumnLabel( i + 1 );
+          types[i] = metaData.getColumnType( i + 1 );
+          typeNames[i] = metaData.getColumnTypeName( i + 1 );
+        }
+        List<Object[]> rows = new ArrayList<Object[]>();
+        while ( resultSet.next() ) {
+          Object[] row = new Object[count];
+          for ( int i = 0; i < count; i++ ) {
+            row[i] = resultSet.getObject( i + 1 );
+          }
+          rows.add( row );
+        }
+        return new Rows( labels, types, typeNames, rows );
+      } finally {
+        resultSet.close();
+      }
+    }
+
+    /**
+     * @param label the column label, matched ignoring case
+     * @return the 0-based index of the column, or -1 if there is no such column
+     */
+    int indexOf( String label ) {
+      for ( int i = 0; i < labels.length; i++ ) {
+        if ( labels[i].equalsIgnoreCase( label ) ) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @param rows the rows to keep, from these rows
+     * @return rows with the same columns
+     */
+    Rows withRows( List<Object[]> rows ) {
+      return new Rows( labels, types, typeNames, rows );
+    }
+  }
+
+  private final Rows data;
+
+  /**
+   * The cursor position: 0 before the first row, rows.size() + 1 after the last row
+   */
+  private int position;
+
+  private Object[] row;
+
+  private boolean wasNull;
+
+  private boolean closed;
+
+  /**
+   * Instantiates a new result set positioned before the first row.
+   *
+   * @param data the rows of the result set
+   */
+  DrillCachedResultSet( Rows data ) {
+    this.data = data;
+  }
+
+  /**
+   * @return the rows of the result set
+   */
+  Rows getRows() {
+    return data;
+  }
+
+  private static SQLException readOnly() {
+    return new SQLFeatureNotSupportedException( "The cached result set is read only" );
+  }
+
+  private boolean moveTo( int newPosition ) throws SQLException {
+    checkOpen();
+    int size = data.rows.size();
+    position = Math.max( 0, Math.min( size + 1, newPosition ) );
+    row = position >= 1 && position <= size ? data.rows.get( position - 1 ) : null;
+    return row != null;
+  }
+
+  private void checkOpen() throws SQLException {
+    if ( closed ) {
+      throw new SQLException( "The result set is closed" );
+    }
+  }
+
+  private Object value( int columnIndex ) throws SQLException {
+    checkOpen();
+    if ( row == null ) {
+      throw new SQLException( "The result set is not on a row" );
+    }
+    if ( columnIndex < 1 || columnIndex > data.labels.length ) {
+      throw new SQLException( "Invalid column index: " + columnIndex );
+    }
+    Object value = row[columnIndex - 1];
+    wasNull = value == null;
+    return value;
+  }
+
+  private Number number( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null ) {
+      return null;
+    } else if ( value instanceof Number ) {
+      return (Number) value;
+    } else if ( value instanceof Boolean ) {
+      return ( (Boolean) value ) ? 1 : 0;
+    }
+    try {
+      return new BigDecimal( value.toString().trim() );
+    } catch ( NumberFormatException e ) {
+      throw new SQLException( "Not a number: " + value, e );
+    }
+  }
+
+  @Override
+  public boolean next() throws SQLException {
+    return moveTo( position + 1 );
+  }
+
+  @Override
+  public void close() throws SQLException {
+    closed = true;
+    row = null;
+  }
+
+  @Override
+  public boolean wasNull() throws SQLException {
+    return wasNull;
+  }
+
+  @Override
+  public String getString( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    return value == null ? null : value.toString();
+  }
+
+  @Override
+  public boolean getBoolean( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value instanceof Boolean ) {
+      return (Boolean) value;
+    } else if ( value instanceof Number ) {
+      return ( (Number) value ).intValue() != 0;
+    }
+    return value != null && ( "true".equalsIgnoreCase( value.toString().trim() ) || "1".equals( value.toString() ) );
+  }
+
+  @Override
+  public byte getByte( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    return value == null ? 0 : value.byteValue();
+  }
+
+  @Override
+  public short getShort( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    return value == null ? 0 : value.shortValue();
+  }
+
+  @Override
+  public int getInt( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    return value == null ? 0 : value.intValue();
+  }
+
+  @Override
+  public long getLong( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    return value == null ? 0 : value.longValue();
+  }
+
+  @Override
+  public float getFloat( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    return value == null ? 0 : value.floatValue();
+  }
+
+  @Override
+  public double getDouble( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    return value == null ? 0 : value.doubleValue();
+  }
+
+  @Override
+  @Deprecated
+  public BigDecimal getBigDecimal( int columnIndex, int scale ) throws SQLException {
+    BigDecimal value = getBigDecimal( columnIndex );
+    return value == null ? null : value.setScale( scale, BigDecimal.ROUND_HALF_UP );
+  }
+
+  @Override
+  public byte[] getBytes( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null || value instanceof byte[] ) {
+      return (byte[]) value;
+    }
+    return value.toString().getBytes( Charset.forName( "UTF-8" ) );
+  }
+
+  @Override
+  public Date getDate( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null || value instanceof Date ) {
+      return (Date) value;
+    } else if ( value instanceof java.util.Date ) {
+      return new Date( ( (java.util.Date) value ).getTime() );
+    }
+    try {
+      return Date.valueOf( value.toString().trim() );
+    } catch ( IllegalArgumentException e ) {
+      throw new SQLException( "Not a date: " + value, e );
+    }
+  }
+
+  @Override
+  public Time getTime( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null || value instanceof Time ) {
+      return (Time) value;
+    } else if ( value instanceof java.util.Date ) {
+      return new Time( ( (java.util.Date) value ).getTime() );
+    }
+    try {
+      return Time.valueOf( value.toString().trim() );
+    } catch ( IllegalArgumentException e ) {
+      throw new SQLException( "Not a time: " + value, e );
+    }
+  }
+
+  @Override
+  public Timestamp getTimestamp( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null || value instanceof Timestamp ) {
+      return (Timestamp) value;
+    } else if ( value instanceof java.util.Date ) {
+      return new Timestamp( ( (java.util.Date) value ).getTime() );
+    }
+    try {
+      return Timestamp.valueOf( value.toString().trim() );
+    } catch ( IllegalArgumentException e ) {
+      throw new SQLException( "Not a timestamp: " + value, e );
+    }
+  }
+
+  @Override
+  public InputStream getAsciiStream( int columnIndex ) throws SQLException {
+    return getBinaryStream( columnIndex );
+  }
+
+  @Override
+  @Deprecated
+  public InputStream getUnicodeStream( int columnIndex ) throws SQLException {
+    return getBinaryStream( columnIndex );
+  }
+
+  @Override
+  public InputStream getBinaryStream( int columnIndex ) throws SQLException {
+    byte[] value = getBytes( columnIndex );
+    return value == null ? null : new ByteArrayInputStream( value );
+  }
+
+  @Override
+  public String getString( String columnLabel ) throws SQLException {
+    return getString( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public boolean getBoolean( String columnLabel ) throws SQLException {
+    return getBoolean( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public byte getByte( String columnLabel ) throws SQLException {
+    return getByte( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public short getShort( String columnLabel ) throws SQLException {
+    return getShort( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public int getInt( String columnLabel ) throws SQLException {
+    return getInt( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public long getLong( String columnLabel ) throws SQLException {
+    return getLong( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public float getFloat( String columnLabel ) throws SQLException {
+    return getFloat( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public double getDouble( String columnLabel ) throws SQLException {
+    return getDouble( findColumn( columnLabel ) );
+  }
+
+  @Override
+  @Deprecated
+  public BigDecimal getBigDecimal( String columnLabel, int scale ) throws SQLException {
+    return getBigDecimal( findColumn( columnLabel ), scale );
+  }
+
+  @Override
+  public byte[] getBytes( String columnLabel ) throws SQLException {
+    return getBytes( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Date getDate( String columnLabel ) throws SQLException {
+    return getDate( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Time getTime( String columnLabel ) throws SQLException {
+    return getTime( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Timestamp getTimestamp( String columnLabel ) throws SQLException {
+    return getTimestamp( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public InputStream getAsciiStream( String columnLabel ) throws SQLException {
+    return getAsciiStream( findColumn( columnLabel ) );
+  }
+
+  @Override
+  @Deprecated
+  public InputStream getUnicodeStream( String columnLabel ) throws SQLException {
+    return getUnicodeStream( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public InputStream getBinaryStream( String columnLabel ) throws SQLException {
+    return getBinaryStream( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return null;
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+  }
+
+  @Override
+  public String getCursorName() throws SQLException {
+    throw new SQLFeatureNotSupportedException( "The cached result set has no cursor name" );
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return new MetaData( data );
+  }
+
+  @Override
+  public Object getObject( int columnIndex ) throws SQLException {
+    return value( columnIndex );
+  }
+
+  @Override
+  public Object getObject( String columnLabel ) throws SQLException {
+    return getObject( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public int findColumn( String columnLabel ) throws SQLException {
+    int index = data.indexOf( columnLabel );
+    if ( index < 0 ) {
+      throw new SQLException( "Invalid column label: " + columnLabel );
+    }
+    return index + 1;
+  }
+
+  @Override
+  public Reader getCharacterStream( int columnIndex ) throws SQLException {
+    String value = getString( columnIndex );
+    return value == null ? null : new StringReader( value );
+  }
+
+  @Override
+  public Reader getCharacterStream( String columnLabel ) throws SQLException {
+    return getCharacterStream( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public BigDecimal getBigDecimal( int columnIndex ) throws SQLException {
+    Number value = number( columnIndex );
+    if ( value == null || value instanceof BigDecimal ) {
+      return (BigDecimal) value;
+    }
+    return new BigDecimal( value.toString() );
+  }
+
+  @Override
+  public BigDecimal getBigDecimal( String columnLabel ) throws SQLException {
+    return getBigDecimal( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public boolean isBeforeFirst() throws SQLException {
+    return position == 0 && !data.rows.isEmpty();
+  }
+
+  @Override
+  public boolean isAfterLast() throws SQLException {
+    return position > data.rows.size() && !data.rows.isEmpty();
+  }
+
+  @Override
+  public boolean isFirst() throws SQLException {
+    return position == 1 && row != null;
+  }
+
+  @Override
+  public boolean isLast() throws SQLException {
+    return position == data.rows.size() && row != null;
+  }
+
+  @Override
+  public void beforeFirst() throws SQLException {
+    moveTo( 0 );
+  }
+
+  @Override
+  public void afterLast() throws SQLException {
+    moveTo( data.rows.size() + 1 );
+  }
+
+  @Override
+  public boolean first() throws SQLException {
+    return moveTo( 1 );
+  }
+
+  @Override
+  public boolean last() throws SQLException {
+    return moveTo( data.rows.size() );
+  }
+
+  @Override
+  public int getRow() throws SQLException {
+    return row == null ? 0 : position;
+  }
+
+  @Override
+  public boolean absolute( int row ) throws SQLException {
+    return moveTo( row >= 0 ? row : data.rows.size() + 1 + row );
+  }
+
+  @Override
+  public boolean relative( int rows ) throws SQLException {
+    return moveTo( position + rows );
+  }
+
+  @Override
+  public boolean previous() throws SQLException {
+    return moveTo( position - 1 );
+  }
+
+  @Override
+  public void setFetchDirection( int direction ) throws SQLException {
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return FETCH_FORWARD;
+  }
+
+  @Override
+  public void setFetchSize( int rows ) throws SQLException {
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return data.rows.size();
+  }
+
+  @Override
+  public int getType() throws SQLException {
+    return TYPE_SCROLL_INSENSITIVE;
+  }
+
+  @Override
+  public int getConcurrency() throws SQLException {
+    return CONCUR_READ_ONLY;
+  }
+
+  @Override
+  public boolean rowUpdated() throws SQLException {
+    return false;
+  }
+
+  @Override
+  public boolean rowInserted() throws SQLException {
+    return false;
+  }
+
+  @Override
+  public boolean rowDeleted() throws SQLException {
+    return false;
+  }
+
+  @Override
+  public void updateNull( int columnIndex ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBoolean( int columnIndex, boolean x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateByte( int columnIndex, byte x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateShort( int columnIndex, short x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateInt( int columnIndex, int x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateLong( int columnIndex, long x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateFloat( int columnIndex, float x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateDouble( int columnIndex, double x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBigDecimal( int columnIndex, BigDecimal x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateString( int columnIndex, String x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBytes( int columnIndex, byte[] x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateDate( int columnIndex, Date x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateTime( int columnIndex, Time x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateTimestamp( int columnIndex, Timestamp x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream( int columnIndex, InputStream x, int length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream( int columnIndex, InputStream x, int length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream( int columnIndex, Reader x, int length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateObject( int columnIndex, Object x, int scaleOrLength ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateObject( int columnIndex, Object x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNull( String columnLabel ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBoolean( String columnLabel, boolean x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateByte( String columnLabel, byte x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateShort( String columnLabel, short x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateInt( String columnLabel, int x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateLong( String columnLabel, long x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateFloat( String columnLabel, float x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateDouble( String columnLabel, double x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBigDecimal( String columnLabel, BigDecimal x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateString( String columnLabel, String x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBytes( String columnLabel, byte[] x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateDate( String columnLabel, Date x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateTime( String columnLabel, Time x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateTimestamp( String columnLabel, Timestamp x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream( String columnLabel, InputStream x, int length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream( String columnLabel, InputStream x, int length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream( String columnLabel, Reader x, int length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateObject( String columnLabel, Object x, int scaleOrLength ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateObject( String columnLabel, Object x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateRef( int columnIndex, Ref x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateRef( String columnLabel, Ref x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob( int columnIndex, Blob x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob( String columnLabel, Blob x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob( int columnIndex, Clob x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob( String columnLabel, Clob x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateArray( int columnIndex, Array x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateArray( String columnLabel, Array x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateRowId( int columnIndex, RowId x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateRowId( String columnLabel, RowId x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNString( int columnIndex, String x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNString( String columnLabel, String x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob( int columnIndex, NClob x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob( String columnLabel, NClob x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateSQLXML( int columnIndex, SQLXML x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateSQLXML( String columnLabel, SQLXML x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream( int columnIndex, Reader x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream( String columnLabel, Reader x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream( int columnIndex, InputStream x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream( int columnIndex, InputStream x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream( int columnIndex, Reader x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream( String columnLabel, InputStream x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream( String columnLabel, InputStream x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream( String columnLabel, Reader x, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob( int columnIndex, InputStream inputStream, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob( String columnLabel, InputStream inputStream, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob( int columnIndex, Reader reader, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob( String columnLabel, Reader reader, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob( int columnIndex, Reader reader, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob( String columnLabel, Reader reader, long length ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream( int columnIndex, Reader x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream( String columnLabel, Reader x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream( int columnIndex, InputStream x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream( int columnIndex, InputStream x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream( int columnIndex, Reader x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream( String columnLabel, InputStream x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream( String columnLabel, InputStream x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream( String columnLabel, Reader x ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob( int columnIndex, InputStream inputStream ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob( String columnLabel, InputStream inputStream ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob( int columnIndex, Reader reader ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob( String columnLabel, Reader reader ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob( int columnIndex, Reader reader ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob( String columnLabel, Reader reader ) throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateRow() throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void insertRow() throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void deleteRow() throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void refreshRow() throws SQLException {
+  }
+
+  @Override
+  public void cancelRowUpdates() throws SQLException {
+  }
+
+  @Override
+  public void moveToInsertRow() throws SQLException {
+    throw readOnly();
+  }
+
+  @Override
+  public void moveToCurrentRow() throws SQLException {
+  }
+
+  @Override
+  public Statement getStatement() throws SQLException {
+    return null;
+  }
+
+  @Override
+  public Object getObject( int columnIndex, Map<String, Class<?>> map ) throws SQLException {
+    return getObject( columnIndex );
+  }
+
+  @Override
+  public Ref getRef( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, Ref.class );
+  }
+
+  @Override
+  public Blob getBlob( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, Blob.class );
+  }
+
+  @Override
+  public Clob getClob( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, Clob.class );
+  }
+
+  @Override
+  public Array getArray( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, Array.class );
+  }
+
+  @Override
+  public Object getObject( String columnLabel, Map<String, Class<?>> map ) throws SQLException {
+    return getObject( findColumn( columnLabel ), map );
+  }
+
+  @Override
+  public Ref getRef( String columnLabel ) throws SQLException {
+    return getRef( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Blob getBlob( String columnLabel ) throws SQLException {
+    return getBlob( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Clob getClob( String columnLabel ) throws SQLException {
+    return getClob( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Array getArray( String columnLabel ) throws SQLException {
+    return getArray( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Date getDate( int columnIndex, Calendar cal ) throws SQLException {
+    return getDate( columnIndex );
+  }
+
+  @Override
+  public Date getDate( String columnLabel, Calendar cal ) throws SQLException {
+    return getDate( findColumn( columnLabel ), cal );
+  }
+
+  @Override
+  public Time getTime( int columnIndex, Calendar cal ) throws SQLException {
+    return getTime( columnIndex );
+  }
+
+  @Override
+  public Time getTime( String columnLabel, Calendar cal ) throws SQLException {
+    return getTime( findColumn( columnLabel ), cal );
+  }
+
+  @Override
+  public Timestamp getTimestamp( int columnIndex, Calendar cal ) throws SQLException {
+    return getTimestamp( columnIndex );
+  }
+
+  @Override
+  public Timestamp getTimestamp( String columnLabel, Calendar cal ) throws SQLException {
+    return getTimestamp( findColumn( columnLabel ), cal );
+  }
+
+  @Override
+  public URL getURL( int columnIndex ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null || value instanceof URL ) {
+      return (URL) value;
+    }
+    try {
+      return new URL( value.toString() );
+    } catch ( MalformedURLException e ) {
+      throw new SQLException( "Not a URL: " + value, e );
+    }
+  }
+
+  @Override
+  public URL getURL( String columnLabel ) throws SQLException {
+    return getURL( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public RowId getRowId( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, RowId.class );
+  }
+
+  @Override
+  public RowId getRowId( String columnLabel ) throws SQLException {
+    return getRowId( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    return HOLD_CURSORS_OVER_COMMIT;
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed;
+  }
+
+  @Override
+  public NClob getNClob( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, NClob.class );
+  }
+
+  @Override
+  public NClob getNClob( String columnLabel ) throws SQLException {
+    return getNClob( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public SQLXML getSQLXML( int columnIndex ) throws SQLException {
+    return getObject( columnIndex, SQLXML.class );
+  }
+
+  @Override
+  public SQLXML getSQLXML( String columnLabel ) throws SQLException {
+    return getSQLXML( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public String getNString( int columnIndex ) throws SQLException {
+    return getString( columnIndex );
+  }
+
+  @Override
+  public String getNString( String columnLabel ) throws SQLException {
+    return getString( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public Reader getNCharacterStream( int columnIndex ) throws SQLException {
+    return getCharacterStream( columnIndex );
+  }
+
+  @Override
+  public Reader getNCharacterStream( String columnLabel ) throws SQLException {
+    return getCharacterStream( findColumn( columnLabel ) );
+  }
+
+  @Override
+  public <T> T getObject( int columnIndex, Class<T> type ) throws SQLException {
+    Object value = value( columnIndex );
+    if ( value == null || type.isInstance( value ) ) {
+      return type.cast( value );
+    }
+    throw new SQLException( "Cannot convert " + value.getClass().getName() + " to " + type.getName() );
+  }
+
+  @Override
+  public <T> T getObject( String columnLabel, Class<T> type ) throws SQLException {
+    return getObject( findColumn( columnLabel ), type );
+  }
+
+  @Override
+  public <T> T unwrap( Class<T> iface ) throws SQLException {
+    if ( iface.isInstance( this ) ) {
+      return iface.cast( this );
+    }
+    throw new SQLException( "Not a wrapper for " + iface.getName() );
+  }
+
+  @Override
+  public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+    return iface.isInstance( this );
+  }
+
+  /**
+   * The metadata of a cached result set
+   */
+  private static final class MetaData implements ResultSetMetaData {
+
+    private final Rows data;
+
+    MetaData( Rows data ) {
+      this.data = data;
+    }
+
+    private int index( int column ) throws SQLException {
+      if ( column < 1 || column > data.labels.length ) {
+        throw new SQLException( "Invalid column index: " + column );
+      }
+      return column - 1;
+    }
+
+    @Override
+    public int getColumnCount() throws SQLException {
+      return data.labels.length;
+    }
+
+    @Override
+    public boolean isAutoIncrement( int column ) throws SQLException {
+      index( column );
+      return false;
+    }
+
+    @Override
+    public boolean isCaseSensitive( int column ) throws SQLException {
+      return getColumnType( column ) == Types.VARCHAR;
+    }
+
+    @Override
+    public boolean isSearchable( int column ) throws SQLException {
+      index( column );
+      return true;
+    }
+
+    @Override
+    public boolean isCurrency( int column ) throws SQLException {
+      index( column );
+      return false;
+    }
+
+    @Override
+    public int isNullable( int column ) throws SQLException {
+      index( column );
+      return columnNullableUnknown;
+    }
+
+    @Override
+    public boolean isSigned( int column ) throws SQLException {
+      return DrillResultSetColumns.isSignedType( getColumnType( column ) );
+    }
+
+    @Override
+    public int getColumnDisplaySize( int column ) throws SQLException {
+      index( column );
+      return 0;
+    }
+
+    @Override
+    public String getColumnLabel( int column ) throws SQLException {
+      return data.labels[index( column )];
+    }
+
+    @Override
+    public String getColumnName( int column ) throws SQLException {
+      return getColumnLabel( column );
+    }
+
+    @Override
+    public String getSchemaName( int column ) throws SQLException {
+      index( column );
+      return "";
+    }
+
+    @Override
+    public int getPrecision( int column ) throws SQLException {
+      index( column );
+      return 0;
+    }
+
+    @Override
+    public int getScale( int column ) throws SQLException {
+      index( column );
+      return 0;
+    }
+
+    @Override
+    public String getTableName( int column ) throws SQLException {
+      index( column );
+      return "";
+    }
+
+    @Override
+    public String getCatalogName( int column ) throws SQLException {
+      index( column );
+      return "";
+    }
+
+    @Override
+    public int getColumnType( int column ) throws SQLException {
+      return data.types[index( column )];
+    }
+
+    @Override
+    public String getColumnTypeName( int column ) throws SQLException {
+      return data.typeNames[index( column )];
+    }
+
+    @Override
+    public boolean isReadOnly( int column ) throws SQLException {
+      index( column );
+      return true;
+    }
+
+    @Override
+    public boolean isWritable( int column ) throws SQLException {
+      index( column );
+      return false;
+    }
+
+    @Override
+    public boolean isDefinitelyWritable( int column ) throws SQLException {
+      index( column );
+      return false;
+    }
+
+    @Override
+    public String getColumnClassName( int column ) throws SQLException {
+      index( column );
+      for ( Object[] row : data.rows ) {
+        if ( row[column - 1] != null ) {
+          return row[column - 1].getClass().getName();
+        }
+      }
+      return Object.class.getName();
+    }
+
+    @Override
+    public <T> T unwrap( Class<T> iface ) throws SQLException {
+      if ( iface.isInstance( this ) ) {
+        return iface.cast( this );
+      }
+      throw new SQLException( "Not a wrapper for " + iface.getName() );
+    }
+
+    @Override
+    public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+      return iface.isInstance( this );
+    }
+  }
+}
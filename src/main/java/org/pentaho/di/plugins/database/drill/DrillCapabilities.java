@@ -0,0 +1,221 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * DrillCapabilities records which of the JDBC methods the wrappers have fallbacks for are not implemented by a given
+ * Drill driver version. The methods are probed once, on the first connection made with that driver version, so later
+ * calls can go straight to the fallback instead of building and throwing a "Method not supported" exception each time.
+ * Methods the probe cannot check are recorded the first time the driver reports them as unsupported.
+ */
+public class DrillCapabilities {
+
+  /**
+   * The JDBC methods that have a fallback in the wrappers
+   */
+  public enum Feature {
+    CREATE_STATEMENT_WITH_TYPE, SET_AUTO_COMMIT, SET_READ_ONLY, IS_READ_ONLY, PREPARED_STATEMENT_META_DATA,
+    SET_OBJECT, SET_NULL, IS_SIGNED, IS_VALID
+  }
+
+  /**
+   * Query used to get a prepared statement and result set metadata to probe
+   */
+  static final String PROBE_SQL = "SELECT * FROM sys.version";
+
+  /**
+   * Query with a parameter, used to probe the parameter setters of a prepared statement
+   */
+  static final String PARAMETER_PROBE_SQL = "SELECT * FROM sys.version WHERE commit_id = ?";
+
+  private static final ConcurrentMap<String, DrillCapabilities> capabilitiesByVersion =
+    new ConcurrentHashMap<String, DrillCapabilities>();
+
+  private final String driverVersion;
+
+  private final Set<Feature> unsupported =
+    Collections.newSetFromMap( new ConcurrentHashMap<Feature, Boolean>() );
+
+  DrillCapabilities( String driverVersion ) {
+    this.driverVersion = driverVersion;
+  }
+
+  /**
+   * Returns the capabilities of a driver, probing them on the given connection if this driver version has not been
+   * seen before.
+   *
+   * @param driver     the Drill driver
+   * @param connection a new connection made by the driver
+   * @return the capabilities of the driver version
+   */
+  public static DrillCapabilities forDriver( Driver driver, Connection connection ) {
+    String version = driver.getClass().getName() + " " + driver.getMajorVersion() + "." + driver.getMinorVersion();
+    DrillCapabilities capabilities = capabilitiesByVersion.get( version );
+    if ( capabilities == null ) {
+      synchronized ( capabilitiesByVersion ) {
+        capabilities = capabilitiesByVersion.get( version );
+        if ( capabilities == null ) {
+          capabilities = new DrillCapabilities( version );
+          capabilities.probe( connection );
+          capabilitiesByVersion.put( version, capabilities );
+        }
+      }
+    }
+    return capabilities;
+  }
+
+  /**
+   * @return the driver version these capabilities belong to
+   */
+  public String getDriverVersion() {
+    return driverVersion;
+  }
+
+  /**
+   * @param feature the method to check
+   * @return false if the driver is known not to implement the method
+   */
+  public boolean isSupported( Feature feature ) {
+    return !unsupported.contains( feature );
+  }
+
+  /**
+   * Records that the driver does not implement a method.
+   *
+   * @param feature the method
+   */
+  public void markUnsupported( Feature feature ) {
+    unsupported.add( feature );
+  }
+
+  /**
+   * Records the outcome of a call to a method with a fallback.
+   *
+   * @param feature the method that was called
+   * @param e       the exception the driver threw
+   * @return true if the exception means the method is not implemented, in which case the fallback should be used
+   */
+  boolean recordFailure( Feature feature, SQLException e ) {
+    if ( DrillSqlExceptions.isMethodNotSupported( e ) ) {
+      markUnsupported( feature );
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records the outcome of a probe call. A "Method not supported" SQLException marks the method as not implemented,
+   * other SQLExceptions are ignored. A RuntimeException or LinkageError, such as an UnsupportedOperationException or an
+   * AbstractMethodError of a driver built against an older JDBC version, also marks the method as not implemented, so
+   * the fallback is used and the probe never fails the connection. Other errors, such as an OutOfMemoryError, are not
+   * caught: they say nothing about the driver.
+   */
+  private void recordProbeFailure( Feature feature, Throwable e ) {
+    if ( e instanceof SQLException ) {
+      recordFailure( feature, (SQLException) e );
+    } else {
+      markUnsupported( feature );
+    }
+  }
+
+  /**
+   * Calls each method with a fallback once on a fresh connection and records the ones the driver does not implement.
+   * SQLExceptions other than "Method not supported" are ignored, the method is assumed to exist then.
+   *
+   * @param connection the connection to probe
+   */
+  void probe( Connection connection ) {
+    try {
+      connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY ).close();
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      recordProbeFailure( Feature.CREATE_STATEMENT_WITH_TYPE, e );
+    }
+    boolean readOnly = false;
+    try {
+      readOnly = connection.isReadOnly();
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      recordProbeFailure( Feature.IS_READ_ONLY, e );
+    }
+    try {
+      connection.setReadOnly( readOnly );
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      recordProbeFailure( Feature.SET_READ_ONLY, e );
+    }
+    try {
+      connection.setAutoCommit( true );
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      recordProbeFailure( Feature.SET_AUTO_COMMIT, e );
+    }
+
+    PreparedStatement ps = prepare( connection, PROBE_SQL );
+    if ( ps != null ) {
+      try {
+        ResultSetMetaData rsmd = ps.getMetaData();
+        if ( rsmd == null || rsmd.getColumnCount() == 0 ) {
+          // Drill before 1.8 describes a prepared statement with a layout that has no columns
+          markUnsupported( Feature.PREPARED_STATEMENT_META_DATA );
+        } else {
+          try {
+            rsmd.isSigned( 1 );
+          } catch ( SQLException | RuntimeException | LinkageError e ) {
+            recordProbeFailure( Feature.IS_SIGNED, e );
+          }
+        }
+      } catch ( SQLException | RuntimeException | LinkageError e ) {
+        recordProbeFailure( Feature.PREPARED_STATEMENT_META_DATA, e );
+      } finally {
+        close( ps );
+      }
+    }
+
+    // The parameter setters are probed on a statement that has a parameter, so an error can only mean the setter itself
+    // is not implemented
+    ps = prepare( connection, PARAMETER_PROBE_SQL );
+    if ( ps != null ) {
+      try {
+        try {
+          ps.setNull( 1, Types.VARCHAR );
+        } catch ( SQLException | RuntimeException | LinkageError e ) {
+          recordProbeFailure( Feature.SET_NULL, e );
+        }
+        try {
+          ps.setObject( 1, "" );
+        } catch ( SQLException | RuntimeException | LinkageError e ) {
+          recordProbeFailure( Feature.SET_OBJECT, e );
+        }
+      } finally {
+        close( ps );
+      }
+    }
+  }
+
+  /**
+   * @return the prepared statement, or null if it cannot be prepared; the methods it would probe are then recorded
+   * when they are first called
+   */
+  private static PreparedStatement prepare( Connection connection, String sql ) {
+    try {
+      return connection.prepareStatement( sql );
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      return null;
+    }
+  }
+
+  private static void close( PreparedStatement ps ) {
+    try {
+      ps.close();
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      // ignore
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.SQLException;
+
+/**
+ * DrillColumnReader reads primitive column values from the current row of a Drill result set without boxing them.
+ * It is obtained from a result set of this plugin with <code>resultSet.unwrap( DrillColumnReader.class )</code> and
+ * reads from the Drill result set directly, applying the same conversions as the result set itself. This lets row
+ * conversion code for numeric data run without allocating anything per cell.
+ * <p/>
+ * Values are read as JDBC does: a SQL NULL reads as 0 (or false), and {@link #wasNull()} or {@link #isNull(int)}
+ * tells it apart from a real 0. {@link #isNull(int)} only works for integer, floating point and boolean columns; for
+ * other columns, read the value with the result set and call {@link #wasNull()}.
+ */
+public interface DrillColumnReader {
+
+  /**
+   * @param column the JDBC column index
+   * @return the value of the column as a long
+   * @throws SQLException if the value cannot be read
+   */
+  long readLong( int column ) throws SQLException;
+
+  /**
+   * @param column the JDBC column index
+   * @return the value of the column as an int
+   * @throws SQLException if the value cannot be read
+   */
+  int readInt( int column ) throws SQLException;
+
+  /**
+   * @param column the JDBC column index
+   * @return the value of the column as a double
+   * @throws SQLException if the value cannot be read
+   */
+  double readDouble( int column ) throws SQLException;
+
+  /**
+   * @param column the JDBC column index
+   * @return the value of the column as a boolean
+   * @throws SQLException if the value cannot be read
+   */
+  boolean readBoolean( int column ) throws SQLException;
+
+  /**
+   * @param column the JDBC column index
+   * @return true if the value of the column is SQL NULL in the current row
+   * @throws SQLException if the value cannot be read, or the column is not an integer, floating point or boolean
+   *                      column
+   */
+  boolean isNull( int column ) throws SQLException;
+
+  /**
+   * @return true if the last value read was SQL NULL
+   * @throws SQLException if the result set is closed
+   */
+  boolean wasNull() throws SQLException;
+}
@@ -0,0 +1,581 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * DrillConnectionConfig holds the options of this plugin for one connection. The options are set in the Options tab of
+ * the Kettle database connection, which appends them to the JDBC URL as <code>;name=value</code> pairs (see
+ * {@link DrillDatabaseMeta}). They can also be passed as connection properties, in which case a URL option takes
+ * precedence. The plugin options are removed before the URL and properties are handed to the Drill driver, which
+ * does not know them.
+ * <p/>
+ * Options starting with <code>session.</code> are Drill session options, for instance
+ * <code>session.planner.width.max_per_node=4</code>. They are set on every new Drill connection, see
+ * {@link DrillSessionOptions}.
+ */
+public class DrillConnectionConfig {
+
+  /**
+   * The prefix of Drill JDBC URLs
+   */
+  public static final String URL_PREFIX = "jdbc:drill:";
+
+  /**
+   * The separator between the parts of a Drill JDBC URL
+   */
+  public static final String URL_SEPARATOR = ";";
+
+  /**
+   * The option that decides how column names and labels of result sets are reported, see {@link ColumnNaming}
+   */
+  public static final String OPTION_COLUMN_NAMES = "columnNames";
+
+  /**
+   * The option that turns on connection pooling, see {@link DrillConnectionPool}
+   */
+  public static final String OPTION_POOLED = "pooled";
+
+  /**
+   * The option that makes the connections of a configuration share one Drill connection, see
+   * {@link DrillSharedConnection}
+   */
+  public static final String OPTION_SHARED = "shared";
+
+  /**
+   * The number of idle connections the pool keeps open when evicting idle connections
+   */
+  public static final String OPTION_POOL_MIN_SIZE = "poolMinSize";
+
+  /**
+   * The maximum number of connections, idle or in use, the pool opens
+   */
+  public static final String OPTION_POOL_MAX_SIZE = "poolMaxSize";
+
+  /**
+   * The number of seconds a pooled connection may stay idle before it is closed
+   */
+  public static final String OPTION_POOL_IDLE_TIMEOUT = "poolIdleTimeout";
+
+  /**
+   * The number of seconds to wait for a pooled connection when all of them are in use
+   */
+  public static final String OPTION_POOL_MAX_WAIT = "poolMaxWait";
+
+  /**
+   * The number of seconds between the pings of idle pooled connections, 0 to not ping them. Only connections in the
+   * pool are pinged: a pooled connection that has not been pinged for longer when it is borrowed is pinged first, but
+   * connections in use and plain or shared connections are not checked.
+   */
+  public static final String OPTION_KEEPALIVE_INTERVAL = "keepaliveInterval";
+
+  /**
+   * The number of prepared statements kept per connection for reuse, 0 to not keep them, see
+   * {@link DrillStatementCache}
+   */
+  public static final String OPTION_STATEMENT_CACHE_SIZE = "statementCacheSize";
+
+  /**
+   * The number of seconds the results of DatabaseMetaData calls are kept, 0 to not keep them, see
+   * {@link DrillMetadataCache}
+   */
+  public static final String OPTION_METADATA_CACHE_TTL = "metadataCacheTtl";
+
+  /**
+   * The maximum number of DatabaseMetaData results kept per URL
+   */
+  public static final String OPTION_METADATA_CACHE_SIZE = "metadataCacheSize";
+
+  /**
+   * The option that makes the metadata cache read the columns of a whole schema on the first getColumns call for it
+   */
+  public static final String OPTION_METADATA_PREFETCH = "metadataPrefetch";
+
+  /**
+   * The option that saves the metadata cache to the Kettle home directory for the next session, see
+   * {@link DrillMetadataCache}
+   */
+  public static final String OPTION_METADATA_SNAPSHOT = "metadataSnapshot";
+
+  /**
+   * The option that makes the metadata cache hand out expired results while it refreshes them in the background
+   */
+  public static final String OPTION_METADATA_ASYNC_REFRESH = "metadataAsyncRefresh";
+
+  /**
+   * A comma separated list of the schemas (or schema patterns) listed by getTables and getSchemas, see
+   * {@link DrillMetadataQueries}
+   */
+  public static final String OPTION_BROWSE_SCHEMAS = "browseSchemas";
+
+  /**
+   * The option that leaves the <code>sys</code> and <code>INFORMATION_SCHEMA</code> schemas out of getTables and
+   * getSchemas
+   */
+  public static final String OPTION_HIDE_SYSTEM_SCHEMAS = "hideSystemSchemas";
+
+  /**
+   * The option that makes {@link DrillDatabaseMeta} build a URL connecting to the drillbits directly: the host name is
+   * then a comma separated list of drillbits and the port is their user port
+   */
+  public static final String OPTION_DIRECT_DRILLBITS = "directDrillbits";
+
+  /**
+   * The number of seconds the drillbits found through ZooKeeper are remembered, see {@link DrillbitDiscovery}
+   */
+  public static final String OPTION_DRILLBIT_DISCOVERY_TTL = "drillbitDiscoveryTtl";
+
+  /**
+   * The option that selects how the drillbit of a new connection is picked, see {@link DrillbitBalancer.Policy}
+   */
+  public static final String OPTION_BALANCING = "balancing";
+
+  /**
+   * The prefix of the options that are Drill session options
+   */
+  public static final String SESSION_OPTION_PREFIX = "session.";
+
+  /**
+   * The names of all plugin options, besides the session options
+   */
+  static final Set<String> OPTIONS = Collections.unmodifiableSet( new HashSet<String>( Arrays.asList(
+    OPTION_COLUMN_NAMES, OPTION_POOLED, OPTION_SHARED, OPTION_POOL_MIN_SIZE, OPTION_POOL_MAX_SIZE,
+    OPTION_POOL_IDLE_TIMEOUT, OPTION_POOL_MAX_WAIT, OPTION_KEEPALIVE_INTERVAL, OPTION_STATEMENT_CACHE_SIZE,
+    OPTION_METADATA_CACHE_TTL, OPTION_METADATA_CACHE_SIZE, OPTION_METADATA_PREFETCH, OPTION_METADATA_SNAPSHOT,
+    OPTION_METADATA_ASYNC_REFRESH, OPTION_BROWSE_SCHEMAS, OPTION_HIDE_SYSTEM_SCHEMAS, OPTION_DIRECT_DRILLBITS,
+    OPTION_DRILLBIT_DISCOVERY_TTL, OPTION_BALANCING ) ) );
+
+  /**
+   * How the column names and labels of Drill result sets are reported. Drill qualifies columns with the name of the
+   * table they come from, which Kettle would otherwise turn into field names.
+   */
+  public enum ColumnNaming {
+    /**
+     * Names and labels are both reported without the table qualifier. This is the default.
+     */
+    STRIP( "strip" ),
+    /**
+     * Names and labels are reported as Drill reports them
+     */
+    KEEP( "keep" ),
+    /**
+     * Labels are reported without the table qualifier, names are reported as Drill reports them
+     */
+    ALIAS_ONLY( "aliasOnly" );
+
+    private final String code;
+
+    ColumnNaming( String code ) {
+      this.code = code;
+    }
+
+    /**
+     * @return the option value that selects this naming
+     */
+    public String getCode() {
+      return code;
+    }
+
+    /**
+     * Looks the naming up by its option value, ignoring case.
+     *
+     * @param code the option value
+     * @return the naming
+     * @throws SQLException if the value is not known
+     */
+    public static ColumnNaming fromCode( String code ) throws SQLException {
+      for ( ColumnNaming naming : values() ) {
+        if ( naming.code.equalsIgnoreCase( code.trim() ) ) {
+          return naming;
+        }
+      }
+      throw new SQLException( "Invalid value for option " + OPTION_COLUMN_NAMES + ": " + code );
+    }
+  }
+
+  /**
+   * The configuration used when no options are given
+   */
+  public static final DrillConnectionConfig DEFAULT = new DrillConnectionConfig();
+
+  private final String url;
+
+  private final Properties info;
+
+  private final Properties options;
+
+  private final ColumnNaming columnNaming;
+
+  private final boolean pooled;
+
+  private final boolean shared;
+
+  private final int poolMinSize;
+
+  private final int poolMaxSize;
+
+  private final int poolIdleTimeout;
+
+  private final int poolMaxWait;
+
+  private final int keepaliveInterval;
+
+  private final int statementCacheSize;
+
+  private final int metadataCacheTtl;
+
+  private final int metadataCacheSize;
+
+  private final boolean metadataPrefetch;
+
+  private final boolean metadataSnapshot;
+
+  private final boolean metadataAsyncRefresh;
+
+  private final List<String> browseSchemas;
+
+  private final boolean hideSystemSchemas;
+
+  private final int drillbitDiscoveryTtl;
+
+  private final DrillbitBalancer.Policy balancing;
+
+  private final Map<String, String> sessionOptions;
+
+  private DrillConnectionConfig() {
+    this.url = null;
+    this.info = null;
+    this.options = new Properties();
+    this.columnNaming = ColumnNaming.STRIP;
+    this.pooled = false;
+    this.shared = false;
+    this.poolMinSize = 0;
+    this.poolMaxSize = 8;
+    this.poolIdleTimeout = 300;
+    this.poolMaxWait = 30;
+    this.keepaliveInterval = 60;
+    this.statementCacheSize = 0;
+    this.metadataCacheTtl = 0;
+    this.metadataCacheSize = 1000;
+    this.metadataPrefetch = false;
+    this.metadataSnapshot = false;
+    this.metadataAsyncRefresh = false;
+    this.browseSchemas = Collections.emptyList();
+    this.hideSystemSchemas = false;
+    this.drillbitDiscoveryTtl = 0;
+    this.balancing = DrillbitBalancer.Policy.NONE;
+    this.sessionOptions = Collections.emptyMap();
+  }
+
+  /**
+   * Instantiates a new connection configuration.
+   *
+   * @param url     the URL without plugin options
+   * @param info    the connection properties without plugin options
+   * @param options the plugin options
+   * @throws SQLException if an option has an invalid value
+   */
+  DrillConnectionConfig( String url, Properties info, Properties options ) throws SQLException {
+    this.url = url;
+    this.info = info;
+    this.options = options;
+    String columnNames = options.getProperty( OPTION_COLUMN_NAMES );
+    this.columnNaming = columnNames == null ? DEFAULT.columnNaming : ColumnNaming.fromCode( columnNames );
+    this.pooled = getBooleanOption( OPTION_POOLED, DEFAULT.pooled );
+    this.shared = getBooleanOption( OPTION_SHARED, DEFAULT.shared );
+    this.poolMinSize = getIntOption( OPTION_POOL_MIN_SIZE, DEFAULT.poolMinSize );
+    this.poolMaxSize = Math.max( 1, getIntOption( OPTION_POOL_MAX_SIZE, DEFAULT.poolMaxSize ) );
+    this.poolIdleTimeout = getIntOption( OPTION_POOL_IDLE_TIMEOUT, DEFAULT.poolIdleTimeout );
+    this.poolMaxWait = getIntOption( OPTION_POOL_MAX_WAIT, DEFAULT.poolMaxWait );
+    this.keepaliveInterval = getIntOption( OPTION_KEEPALIVE_INTERVAL, DEFAULT.keepaliveInterval );
+    this.statementCacheSize = getIntOption( OPTION_STATEMENT_CACHE_SIZE, DEFAULT.statementCacheSize );
+    this.metadataCacheTtl = getIntOption( OPTION_METADATA_CACHE_TTL, DEFAULT.metadataCacheTtl );
+    this.metadataCacheSize = Math.max( 1, getIntOption( OPTION_METADATA_CACHE_SIZE, DEFAULT.metadataCacheSize ) );
+    this.metadataPrefetch = getBooleanOption( OPTION_METADATA_PREFETCH, DEFAULT.metadataPrefetch );
+    this.metadataSnapshot = getBooleanOption( OPTION_METADATA_SNAPSHOT, DEFAULT.metadataSnapshot );
+    this.metadataAsyncRefresh = getBooleanOption( OPTION_METADATA_ASYNC_REFRESH, DEFAULT.metadataAsyncRefresh );
+    List<String> schemas = new ArrayList<String>();
+    for ( String schema : options.getProperty( OPTION_BROWSE_SCHEMAS, "" ).split( "," ) ) {
+      if ( schema.trim().length() > 0 ) {
+        schemas.add( schema.trim() );
+      }
+    }
+    this.browseSchemas = schemas.isEmpty() ? DEFAULT.browseSchemas : Collections.unmodifiableList( schemas );
+    this.hideSystemSchemas = getBooleanOption( OPTION_HIDE_SYSTEM_SCHEMAS, DEFAULT.hideSystemSchemas );
+    this.drillbitDiscoveryTtl = getIntOption( OPTION_DRILLBIT_DISCOVERY_TTL, DEFAULT.drillbitDiscoveryTtl );
+    String balancingPolicy = options.getProperty( OPTION_BALANCING );
+    this.balancing = balancingPolicy == null ? DEFAULT.balancing : DrillbitBalancer.Policy.fromCode( balancingPolicy );
+    Map<String, String> session = new TreeMap<String, String>();
+    for ( String name : options.stringPropertyNames() ) {
+      String value = options.getProperty( name ).trim();
+      if ( name.startsWith( SESSION_OPTION_PREFIX ) && value.length() > 0 ) {
+        session.put( name.substring( SESSION_OPTION_PREFIX.length() ), value );
+      }
+    }
+    this.sessionOptions = session.isEmpty() ? DEFAULT.sessionOptions : Collections.unmodifiableMap( session );
+  }
+
+  private boolean getBooleanOption( String name, boolean defaultValue ) {
+    String value = options.getProperty( name );
+    return value == null ? defaultValue : Boolean.parseBoolean( value.trim() );
+  }
+
+  private int getIntOption( String name, int defaultValue ) throws SQLException {
+    String value = options.getProperty( name );
+    if ( value == null ) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      throw new SQLException( "Invalid value for option " + name + ": " + value, e );
+    }
+  }
+
+  /**
+   * Reads the plugin options from a JDBC URL and connection properties.
+   *
+   * @param url  the JDBC URL
+   * @param info the connection properties, may be null
+   * @return the configuration
+   * @throws SQLException if an option has an invalid value
+   */
+  public static DrillConnectionConfig parse( String url, Properties info ) throws SQLException {
+    Properties options = new Properties();
+    Properties driverInfo = info;
+    if ( info != null ) {
+      for ( String name : info.stringPropertyNames() ) {
+        if ( isOption( name ) ) {
+          if ( driverInfo == info ) {
+            driverInfo = new Properties();
+            driverInfo.putAll( info );
+          }
+          options.setProperty( name, info.getProperty( name ) );
+          driverInfo.remove( name );
+        }
+      }
+    }
+
+    String driverUrl = url;
+    if ( isDrillUrl( url ) ) {
+      String[] parts = url.split( URL_SEPARATOR );
+      StringBuilder cleanUrl = new StringBuilder( url.length() );
+      for ( String part : parts ) {
+        int equalsIndex = part.indexOf( '=' );
+        if ( cleanUrl.length() > 0 && equalsIndex > 0 && isOption( part.substring( 0, equalsIndex ).trim() ) ) {
+          options.setProperty( part.substring( 0, equalsIndex ).trim(), part.substring( equalsIndex + 1 ) );
+        } else if ( cleanUrl.length() > 0 && equalsIndex < 0 && isOption( part.trim() ) ) {
+          // An option without a value, as Kettle writes empty options: not set
+          continue;
+        } else if ( part.length() > 0 ) {
+          if ( cleanUrl.length() > 0 ) {
+            cleanUrl.append( URL_SEPARATOR );
+          }
+          cleanUrl.append( part );
+        }
+      }
+      if ( cleanUrl.length() != url.length() ) {
+        driverUrl = cleanUrl.toString();
+      }
+    }
+
+    return new DrillConnectionConfig( driverUrl, driverInfo, options );
+  }
+
+  /**
+   * Tells whether a URL is a Drill JDBC URL. This is only a prefix check: it allocates nothing and does not need the
+   * Drill driver, so it is cheap enough for the acceptsURL calls DriverManager makes for every connection in the JVM.
+   *
+   * @param url the JDBC URL, may be null
+   * @return true if the URL starts with {@link #URL_PREFIX}
+   */
+  public static boolean isDrillUrl( String url ) {
+    return url != null && url.startsWith( URL_PREFIX );
+  }
+
+  /**
+   * @param name the name of a URL parameter or connection property
+   * @return true if the name is a plugin option
+   */
+  static boolean isOption( String name ) {
+    return OPTIONS.contains( name )
+      || ( name.startsWith( SESSION_OPTION_PREFIX ) && name.length() > SESSION_OPTION_PREFIX.length() );
+  }
+
+  /**
+   * @return the JDBC URL to hand to the Drill driver
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return the connection properties to hand to the Drill driver
+   */
+  public Properties getInfo() {
+    return info;
+  }
+
+  /**
+   * @param name the option name
+   * @return the option value, or null if the option is not set
+   */
+  public String getOption( String name ) {
+    return options.getProperty( name );
+  }
+
+  /**
+   * @return how column names and labels are reported
+   */
+  public ColumnNaming getColumnNaming() {
+    return columnNaming;
+  }
+
+  /**
+   * @return true if connections are taken from a {@link DrillConnectionPool}
+   */
+  public boolean isPooled() {
+    return pooled;
+  }
+
+  /**
+   * @return true if the connections share one Drill connection through {@link DrillSharedConnection}; this takes
+   * precedence over pooling
+   */
+  public boolean isShared() {
+    return shared;
+  }
+
+  /**
+   * @return the number of idle connections the pool keeps open
+   */
+  public int getPoolMinSize() {
+    return poolMinSize;
+  }
+
+  /**
+   * @return the maximum number of connections the pool opens
+   */
+  public int getPoolMaxSize() {
+    return poolMaxSize;
+  }
+
+  /**
+   * @return the number of milliseconds a pooled connection may stay idle
+   */
+  public long getPoolIdleTimeoutMillis() {
+    return poolIdleTimeout * 1000L;
+  }
+
+  /**
+   * @return the number of milliseconds to wait for a pooled connection
+   */
+  public long getPoolMaxWaitMillis() {
+    return poolMaxWait * 1000L;
+  }
+
+  /**
+   * @return the number of milliseconds between the pings of idle pooled connections, 0 if they are not pinged
+   */
+  public long getKeepaliveIntervalMillis() {
+    return Math.max( 0, keepaliveInterval ) * 1000L;
+  }
+
+  /**
+   * @return the number of prepared statements kept per connection for reuse, 0 if they are not kept
+   */
+  public int getStatementCacheSize() {
+    return Math.max( 0, statementCacheSize );
+  }
+
+  /**
+   * @return the number of milliseconds the results of DatabaseMetaData calls are kept, 0 if they are not kept
+   */
+  public long getMetadataCacheTtlMillis() {
+    return Math.max( 0, metadataCacheTtl ) * 1000L;
+  }
+
+  /**
+   * @return the maximum number of DatabaseMetaData results kept per URL
+   */
+  public int getMetadataCacheSize() {
+    return metadataCacheSize;
+  }
+
+  /**
+   * @return true if the metadata cache reads the columns of a whole schema at once; only used when metadata is cached
+   */
+  public boolean isMetadataPrefetch() {
+    return metadataPrefetch;
+  }
+
+  /**
+   * @return true if the metadata cache is saved for the next session; only used when metadata is cached
+   */
+  public boolean isMetadataSnapshot() {
+    return metadataSnapshot;
+  }
+
+  /**
+   * @return true if expired metadata results are handed out while they are refreshed in the background; only used
+   * when metadata is cached
+   */
+  public boolean isMetadataAsyncRefresh() {
+    return metadataAsyncRefresh;
+  }
+
+  /**
+   * @return the schemas (or schema patterns) listed by getTables and getSchemas, empty to list all schemas
+   */
+  public List<String> getBrowseSchemas() {
+    return browseSchemas;
+  }
+
+  /**
+   * @return true if getTables and getSchemas leave out the system schemas unless they are asked for by name
+   */
+  public boolean isHideSystemSchemas() {
+    return hideSystemSchemas;
+  }
+
+  /**
+   * @return the number of milliseconds the drillbits found through ZooKeeper are remembered, 0 if they are not
+   */
+  public long getDrillbitDiscoveryTtlMillis() {
+    return Math.max( 0, drillbitDiscoveryTtl ) * 1000L;
+  }
+
+  /**
+   * @return how the drillbit of a new connection is picked
+   */
+  public DrillbitBalancer.Policy getBalancing() {
+    return balancing;
+  }
+
+  /**
+   * @return the Drill session options set on every new connection, by option name without the <code>session.</code>
+   * prefix
+   */
+  public Map<String, String> getSessionOptions() {
+    return sessionOptions;
+  }
+
+  /**
+   * @return the key identifying connections made with this configuration: the URL, properties and plugin options
+   */
+  List<Object> getKey() {
+    Properties infoCopy = new Properties();
+    if ( info != null ) {
+      infoCopy.putAll( info );
+    }
+    return Arrays.<Object>asList( url, infoCopy, options );
+  }
+}
@@ -0,0 +1,419 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.plugins.database.drill.DrillCapabilities.Feature;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrillConnectionPool keeps Drill connections open between uses, so short and frequent jobs don't pay for the
+ * ZooKeeper lookup and the drillbit handshake on every connect. It is used when the <code>pooled</code> option is set
+ * (see {@link DrillConnectionConfig}); there is one pool per URL, connection properties and plugin options.
+ * <p/>
+ * Closing a connection handed out by the pool returns the Drill connection to the pool. Idle connections are validated
+ * when they are borrowed, and closed by a background task once they have been idle longer than the idle timeout,
+ * keeping at least the minimum number of idle connections open.
+ * <p/>
+ * Idle connections die silently when their drillbit restarts. Unless the <code>keepaliveInterval</code> option is 0,
+ * a background task pings the idle connections with a cheap query, closes the dead ones and opens new connections in
+ * their place, so the next job gets a live connection instead of waiting for the RPC timeout. A connection that has
+ * not been pinged for longer than the interval when it is borrowed is pinged first.
+ * <p/>
+ * Only connections in the pool are checked. A connection that is in use, as well as plain and shared connections, is
+ * not pinged or replaced: it belongs to the job holding it, which gets the error of the Drill client if the drillbit
+ * went away.
+ */
+public final class DrillConnectionPool {
+
+  /**
+   * How often idle connections are evicted, in milliseconds
+   */
+  static final long EVICTION_INTERVAL_MILLIS = 30000L;
+
+  /**
+   * The number of seconds a connection has to answer the validation on borrow
+   */
+  static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  /**
+   * The query that pings idle connections
+   */
+  static final String KEEPALIVE_SQL = "SELECT 1 FROM sys.version";
+
+  private static final ConcurrentMap<List<Object>, DrillConnectionPool> pools =
+    new ConcurrentHashMap<List<Object>, DrillConnectionPool>();
+
+  private static ScheduledExecutorService evictor;
+
+  private final Driver driver;
+
+  private final DrillConnectionConfig config;
+
+  /**
+   * The idle connections, the most recently returned one first
+   */
+  private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+
+  /**
+   * The number of connections opened by the pool and not closed yet, idle or in use
+   */
+  private int open;
+
+  private DrillConnectionPool( Driver driver, DrillConnectionConfig config ) {
+    this.driver = driver;
+    this.config = config;
+  }
+
+  /**
+   * Returns the pool for the URL, properties and options of a configuration, creating it if needed.
+   *
+   * @param driver the Drill driver that opens the connections
+   * @param config the connection configuration
+   * @return the pool
+   */
+  public static DrillConnectionPool forConfig( Driver driver, DrillConnectionConfig config ) {
+    List<Object> key = config.getKey();
+    DrillConnectionPool pool = pools.get( key );
+    if ( pool == null ) {
+      DrillConnectionPool newPool = new DrillConnectionPool( driver, config );
+      pool = pools.putIfAbsent( key, newPool );
+      if ( pool == null ) {
+        pool = newPool;
+        schedule( pool );
+      }
+    }
+    return pool;
+  }
+
+  private static synchronized void schedule( final DrillConnectionPool pool ) {
+    if ( evictor == null ) {
+      evictor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "Drill connection pool evictor" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+      evictor.scheduleWithFixedDelay( new Runnable() {
+        @Override
+        public void run() {
+          for ( DrillConnectionPool pool : pools.values() ) {
+            pool.evictIdle( System.currentTimeMillis() );
+          }
+        }
+      }, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+    }
+    final long keepaliveInterval = pool.config.getKeepaliveIntervalMillis();
+    if ( keepaliveInterval > 0 ) {
+      evictor.scheduleWithFixedDelay( new Runnable() {
+        @Override
+        public void run() {
+          pool.keepAlive( System.currentTimeMillis() - keepaliveInterval );
+        }
+      }, keepaliveInterval, keepaliveInterval, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * @return the configuration the pool was created with
+   */
+  public DrillConnectionConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Takes an idle connection from the pool, or opens a new one if there is none and the pool is not full. If the pool
+   * is full, waits until a connection is returned.
+   *
+   * @return the Drill connection, or null if the driver does not accept the URL
+   * @throws SQLException if no connection becomes available in time or a new connection cannot be opened
+   */
+  public Connection borrow() throws SQLException {
+    long deadline = System.currentTimeMillis() + config.getPoolMaxWaitMillis();
+    while ( true ) {
+      IdleConnection candidate = null;
+      boolean mayOpen = false;
+      synchronized ( this ) {
+        candidate = idle.pollFirst();
+        if ( candidate == null ) {
+          if ( open < config.getPoolMaxSize() ) {
+            open++;
+            mayOpen = true;
+          } else {
+            long wait = deadline - System.currentTimeMillis();
+            if ( wait <= 0 ) {
+              throw new SQLException( "Timed out waiting for a pooled Drill connection, all "
+                + config.getPoolMaxSize() + " connections are in use" );
+            }
+            try {
+              wait( wait );
+            } catch ( InterruptedException e ) {
+              Thread.currentThread().interrupt();
+              throw new SQLException( "Interrupted while waiting for a pooled Drill connection", e );
+            }
+            continue;
+          }
+        }
+      }
+
+      if ( candidate != null ) {
+        if ( isValid( candidate ) ) {
+          DrillbitBalancer.borrowed( candidate.connection );
+          return candidate.connection;
+        }
+        discard( candidate.connection );
+      } else if ( mayOpen ) {
+        return open();
+      }
+    }
+  }
+
+  private Connection open() throws SQLException {
+    Connection connection = null;
+    try {
+      connection = DrillbitDiscovery.connect( driver, config );
+      return connection;
+    } finally {
+      if ( connection == null ) {
+        released();
+      }
+    }
+  }
+
+  /**
+   * Returns a connection to the pool after its logical close.
+   *
+   * @param connection the Drill connection
+   */
+  public void release( Connection connection ) {
+    try {
+      if ( connection.isClosed() ) {
+        released();
+        return;
+      }
+    } catch ( SQLException e ) {
+      discard( connection );
+      return;
+    }
+    DrillbitBalancer.released( connection );
+    synchronized ( this ) {
+      idle.addFirst( new IdleConnection( connection, System.currentTimeMillis() ) );
+      notifyAll();
+    }
+  }
+
+  /**
+   * Closes a connection instead of returning it to the pool, for instance because it failed.
+   *
+   * @param connection the Drill connection
+   */
+  public void discard( Connection connection ) {
+    try {
+      connection.close();
+    } catch ( SQLException e ) {
+      // ignore, the connection is given up anyway
+    } finally {
+      DrillbitBalancer.closed( connection );
+      released();
+    }
+  }
+
+  private synchronized void released() {
+    open--;
+    notifyAll();
+  }
+
+  /**
+   * Closes the connections that have been idle longer than the idle timeout, keeping the minimum number of idle
+   * connections open.
+   *
+   * @param now the current time in milliseconds
+   */
+  void evictIdle( long now ) {
+    Deque<Connection> evicted = new ArrayDeque<Connection>();
+    synchronized ( this ) {
+      // The least recently returned connections are at the end
+      Iterator<IdleConnection> it = idle.descendingIterator();
+      while ( it.hasNext() && idle.size() > config.getPoolMinSize() ) {
+        IdleConnection candidate = it.next();
+        if ( now - candidate.since < config.getPoolIdleTimeoutMillis() ) {
+          break;
+        }
+        it.remove();
+        evicted.add( candidate.connection );
+      }
+    }
+    for ( Connection connection : evicted ) {
+      discard( connection );
+    }
+  }
+
+  /**
+   * Pings the idle connections that have not been used or pinged since a given time. Dead connections are closed and
+   * replaced by new ones, and new connections are opened until the pool has its minimum number of idle connections.
+   *
+   * @param checkedBefore the time in milliseconds; connections used or pinged later are not pinged
+   */
+  void keepAlive( long checkedBefore ) {
+    List<IdleConnection> candidates = new ArrayList<IdleConnection>();
+    synchronized ( this ) {
+      for ( IdleConnection candidate : idle ) {
+        if ( candidate.checked <= checkedBefore ) {
+          candidates.add( candidate );
+        }
+      }
+    }
+
+    int dead = 0;
+    for ( IdleConnection candidate : candidates ) {
+      synchronized ( this ) {
+        // Take the connection out while it is pinged, unless it was borrowed in the meantime
+        if ( !idle.remove( candidate ) ) {
+          continue;
+        }
+      }
+      if ( ping( candidate.connection ) ) {
+        synchronized ( this ) {
+          candidate.checked = System.currentTimeMillis();
+          addIdle( candidate );
+          notifyAll();
+        }
+      } else {
+        discard( candidate.connection );
+        dead++;
+      }
+    }
+
+    while ( true ) {
+      synchronized ( this ) {
+        if ( ( dead <= 0 && idle.size() >= config.getPoolMinSize() ) || open >= config.getPoolMaxSize() ) {
+          return;
+        }
+        open++;
+      }
+      dead--;
+      Connection connection;
+      try {
+        connection = open();
+      } catch ( SQLException e ) {
+        // The drillbits may still be down, try again on the next run
+        return;
+      }
+      if ( connection == null ) {
+        return;
+      }
+      release( connection );
+    }
+  }
+
+  /**
+   * Puts a connection back into the idle connections, keeping them ordered by the time they were returned.
+   */
+  private void addIdle( IdleConnection connection ) {
+    ListIterator<IdleConnection> it = idle.listIterator();
+    while ( it.hasNext() ) {
+      if ( it.next().since <= connection.since ) {
+        it.previous();
+        break;
+      }
+    }
+    it.add( connection );
+  }
+
+  /**
+   * Runs the keepalive query on a connection.
+   *
+   * @param connection the Drill connection
+   * @return true if the connection answered
+   */
+  private boolean ping( Connection connection ) {
+    try {
+      Statement statement = connection.createStatement();
+      try {
+        try {
+          statement.setQueryTimeout( VALIDATION_TIMEOUT_SECONDS );
+        } catch ( SQLException e ) {
+          // Not supported by every Drill version, the RPC timeout applies then
+        }
+        ResultSet resultSet = statement.executeQuery( KEEPALIVE_SQL );
+        try {
+          return resultSet.next();
+        } finally {
+          resultSet.close();
+        }
+      } finally {
+        statement.close();
+      }
+    } catch ( SQLException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Validates an idle connection before it is handed out. A connection that has not been used or pinged for longer than
+   * the keepalive interval is pinged, otherwise Connection.isValid is asked when the driver supports it.
+   */
+  private boolean isValid( IdleConnection candidate ) {
+    Connection connection = candidate.connection;
+    try {
+      if ( connection.isClosed() ) {
+        return false;
+      }
+      long keepaliveInterval = config.getKeepaliveIntervalMillis();
+      if ( keepaliveInterval > 0 && System.currentTimeMillis() - candidate.checked >= keepaliveInterval ) {
+        return ping( connection );
+      }
+      DrillCapabilities capabilities = DrillCapabilities.forDriver( driver, connection );
+      if ( capabilities.isSupported( Feature.IS_VALID ) ) {
+        try {
+          return connection.isValid( VALIDATION_TIMEOUT_SECONDS );
+        } catch ( SQLException e ) {
+          if ( !capabilities.recordFailure( Feature.IS_VALID, e ) ) {
+            return false;
+          }
+        }
+      }
+      return true;
+    } catch ( SQLException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * An idle connection, the time it was returned to the pool and the time it was last pinged
+   */
+  private static final class IdleConnection {
+
+    final Connection connection;
+
+    final long since;
+
+    /**
+     * The time the connection was last known to be alive, guarded by the pool
+     */
+    long checked;
+
+    IdleConnection( Connection connection, long since ) {
+      this.connection = connection;
+      this.since = since;
+      this.checked = since;
+    }
+  }
+}
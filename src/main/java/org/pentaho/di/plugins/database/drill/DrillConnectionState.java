@@ -0,0 +1,109 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * DrillConnectionState remembers the settings of a pooled connection that its borrower changes through the JDBC
+ * setters (autoCommit, readOnly, catalog and schema) and puts them back before the connection returns to its
+ * {@link DrillConnectionPool}, so one borrower's settings don't leak into the next borrower. Each setting is read once,
+ * just before it is first changed. Settings are read and restored through the logical connection, so the fallbacks
+ * for methods the driver does not implement apply.
+ */
+final class DrillConnectionState {
+
+  private Boolean autoCommit;
+
+  private Boolean readOnly;
+
+  private boolean catalogSaved;
+
+  private String catalog;
+
+  private boolean schemaSaved;
+
+  private String schema;
+
+  /**
+   * Remembers the autoCommit setting, unless it has been remembered already.
+   *
+   * @param connection the logical connection
+   * @throws SQLException if the setting cannot be read
+   */
+  void saveAutoCommit( Connection connection ) throws SQLException {
+    if ( autoCommit == null ) {
+      autoCommit = connection.getAutoCommit();
+    }
+  }
+
+  /**
+   * Remembers the readOnly setting, unless it has been remembered already.
+   *
+   * @param connection the logical connection
+   * @throws SQLException if the setting cannot be read
+   */
+  void saveReadOnly( Connection connection ) throws SQLException {
+    if ( readOnly == null ) {
+      readOnly = connection.isReadOnly();
+    }
+  }
+
+  /**
+   * Remembers the catalog, unless it has been remembered already.
+   *
+   * @param connection the logical connection
+   * @throws SQLException if the catalog cannot be read
+   */
+  void saveCatalog( Connection connection ) throws SQLException {
+    if ( !catalogSaved ) {
+      catalog = connection.getCatalog();
+      catalogSaved = true;
+    }
+  }
+
+  /**
+   * Remembers the schema, unless it has been remembered already.
+   *
+   * @param connection the logical connection
+   * @throws SQLException if the schema cannot be read
+   */
+  void saveSchema( Connection connection ) throws SQLException {
+    if ( !schemaSaved ) {
+      schema = connection.getSchema();
+      schemaSaved = true;
+    }
+  }
+
+  /**
+   * Puts the remembered settings back.
+   *
+   * @param connection the logical connection, still open
+   * @return true if the connection has its original settings again, false if it must not be reused: a setting could
+   * not be put back, or the connection had no catalog or schema before its borrower set one
+   */
+  boolean restore( Connection connection ) {
+    try {
+      if ( autoCommit != null ) {
+        connection.setAutoCommit( autoCommit );
+      }
+      if ( readOnly != null ) {
+        connection.setReadOnly( readOnly );
+      }
+      if ( catalogSaved ) {
+        if ( catalog == null ) {
+          return false;
+        }
+        connection.setCatalog( catalog );
+      }
+      if ( schemaSaved ) {
+        if ( schema == null ) {
+          return false;
+        }
+        connection.setSchema( schema );
+      }
+      return true;
+    } catch ( SQLException e ) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,611 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.plugins.database.drill.DrillCapabilities.Feature;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * DrillConnectionWrapper is a delegating java.sql.Connection for Apache Drill connections. It applies the same
+ * workarounds as the reflective ConnectionInvocationHandler in {@link DriverProxyInvocationChain}, but calls the Drill
+ * connection directly so no argument arrays, boxing or Method.invoke calls are needed per call. Statements and
+ * metadata objects handed out by this class are wrapped as well.
+ */
+public class DrillConnectionWrapper implements Connection {
+
+  /**
+   * The real Drill connection
+   */
+  protected final Connection connection;
+
+  /**
+   * The known capabilities of the Drill driver that made the connection
+   */
+  protected final DrillCapabilities capabilities;
+
+  /**
+   * The plugin options of the connection
+   */
+  protected final DrillConnectionConfig config;
+
+  /**
+   * The prepared statements kept for reuse, or null if the connection does not keep them
+   */
+  protected final DrillStatementCache statementCache;
+
+  /**
+   * Runs the background metadata refreshes started through this connection
+   */
+  protected final DrillMetadataRefresher metadataRefresher = new DrillMetadataRefresher();
+
+  /**
+   * Whether a statement run through this connection changed the Drill session
+   */
+  private volatile boolean sessionChanged;
+
+  /**
+   * Instantiates a new connection wrapper.
+   *
+   * @param connection   the Drill connection to delegate to
+   * @param capabilities the capabilities of the Drill driver
+   * @param config       the plugin options of the connection
+   */
+  public DrillConnectionWrapper( Connection connection, DrillCapabilities capabilities,
+                                 DrillConnectionConfig config ) {
+    this.connection = connection;
+    this.capabilities = capabilities;
+    this.config = config;
+    int statementCacheSize = config.getStatementCacheSize();
+    this.statementCache = statementCacheSize > 0 ? new DrillStatementCache( statementCacheSize ) : null;
+  }
+
+  /**
+   * @return the capabilities of the Drill driver that made the connection
+   */
+  public DrillCapabilities getCapabilities() {
+    return capabilities;
+  }
+
+  /**
+   * @return the plugin options of the connection
+   */
+  public DrillConnectionConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * @return the prepared statements kept for reuse, or null if the connection does not keep them
+   */
+  DrillStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * @return the refresher running the background metadata refreshes started through this connection
+   */
+  DrillMetadataRefresher getMetadataRefresher() {
+    return metadataRefresher;
+  }
+
+  /**
+   * Notes a statement run or prepared through this connection, to know whether it changed the Drill session.
+   *
+   * @param sql the SQL text of the statement
+   */
+  void recordStatement( String sql ) {
+    if ( !sessionChanged && DrillSessionOptions.changesSession( sql ) ) {
+      sessionChanged = true;
+    }
+  }
+
+  /**
+   * Notes that the schema or catalog was set through this connection, which Drill does with a USE statement.
+   */
+  protected void recordSchemaChange() {
+    sessionChanged = true;
+  }
+
+  /**
+   * @return true if a statement run through this connection, or a setSchema or setCatalog call, changed the options or
+   * the schema of the Drill session
+   */
+  boolean isSessionChanged() {
+    return sessionChanged;
+  }
+
+  /**
+   * Checks that the connection can still be used. Plain connections close their Drill connection, which then fails by
+   * itself; pooled and shared Drill connections outlive their wrappers, so {@link DrillPooledConnectionWrapper} and
+   * {@link DrillSharedConnectionWrapper} check here.
+   *
+   * @throws SQLException if the connection is closed
+   */
+  protected void checkOpen() throws SQLException {
+  }
+
+  /**
+   * {@link #checkOpen()} for the setClientInfo methods, which can only throw SQLClientInfoException.
+   */
+  private void checkClientInfoOpen() throws SQLClientInfoException {
+    try {
+      checkOpen();
+    } catch ( SQLException e ) {
+      throw new SQLClientInfoException( e.getMessage(), null, e );
+    }
+  }
+
+  /**
+   * Closes the prepared statements kept for reuse and cancels the background metadata refreshes, before the
+   * connection is closed or returned to the pool.
+   */
+  protected void closeCaches() {
+    metadataRefresher.cancel();
+    if ( statementCache != null ) {
+      statementCache.close();
+    }
+  }
+
+  /**
+   * Takes a Drill prepared statement out of the statement cache.
+   *
+   * @param key the key of the statement, or null if the connection does not keep statements
+   * @return the cached Drill statement, or null if there is none
+   * @throws SQLException if the state of the statement cannot be read
+   */
+  private PreparedStatement takeCachedStatement( List<Object> key ) throws SQLException {
+    if ( key == null ) {
+      return null;
+    }
+    PreparedStatement cached = statementCache.take( key );
+    if ( cached != null && cached.isClosed() ) {
+      // Closed by Drill in the meantime, for instance by closeOnCompletion
+      return null;
+    }
+    return cached;
+  }
+
+  /**
+   * @return the key of a prepared statement in the statement cache, or null if the connection does not keep statements
+   */
+  private List<Object> getCacheKey( String sql, int resultSetType, int resultSetConcurrency,
+                                    int resultSetHoldability ) {
+    return statementCache == null ? null
+      : DrillStatementCache.getKey( sql, resultSetType, resultSetConcurrency, resultSetHoldability );
+  }
+
+  /**
+   * Creates a plain statement; used when Drill does not support the requested result set type or concurrency.
+   *
+   * @return the statement
+   * @throws SQLException if the connection is closed or the statement cannot be created
+   */
+  protected Statement createDefaultStatement() throws SQLException {
+    if ( connection.isClosed() ) {
+      throw new SQLException( "Can't create Statement, connection is closed " );
+    }
+    return createStatement();
+  }
+
+  @Override
+  public void abort( Executor executor ) throws SQLException {
+    try {
+      closeCaches();
+      connection.abort( executor );
+    } finally {
+      DrillbitBalancer.closed( connection );
+    }
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    checkOpen();
+    connection.clearWarnings();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    try {
+      closeCaches();
+      connection.close();
+    } finally {
+      DrillbitBalancer.closed( connection );
+    }
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    checkOpen();
+    connection.commit();
+  }
+
+  @Override
+  public Array createArrayOf( String typeName, Object[] elements ) throws SQLException {
+    checkOpen();
+    return connection.createArrayOf( typeName, elements );
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    checkOpen();
+    return connection.createBlob();
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    checkOpen();
+    return connection.createClob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    checkOpen();
+    return connection.createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    checkOpen();
+    return connection.createSQLXML();
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    checkOpen();
+    return new DrillStatementWrapper( connection.createStatement(), this );
+  }
+
+  @Override
+  public Statement createStatement( int resultSetType, int resultSetConcurrency ) throws SQLException {
+    checkOpen();
+    if ( !capabilities.isSupported( Feature.CREATE_STATEMENT_WITH_TYPE ) ) {
+      return createDefaultStatement();
+    }
+    try {
+      return new DrillStatementWrapper( connection.createStatement( resultSetType, resultSetConcurrency ), this );
+    } catch ( SQLException e ) {
+      if ( capabilities.recordFailure( Feature.CREATE_STATEMENT_WITH_TYPE, e ) ) {
+        return createDefaultStatement();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public Statement createStatement( int resultSetType, int resultSetConcurrency, int resultSetHoldability )
+    throws SQLException {
+    checkOpen();
+    if ( !capabilities.isSupported( Feature.CREATE_STATEMENT_WITH_TYPE ) ) {
+      return createDefaultStatement();
+    }
+    try {
+      return new DrillStatementWrapper(
+        connection.createStatement( resultSetType, resultSetConcurrency, resultSetHoldability ), this );
+    } catch ( SQLException e ) {
+      if ( capabilities.recordFailure( Feature.CREATE_STATEMENT_WITH_TYPE, e ) ) {
+        return createDefaultStatement();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public Struct createStruct( String typeName, Object[] elements ) throws SQLException {
+    checkOpen();
+    return connection.createStruct( typeName, elements );
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    checkOpen();
+    return connection.getAutoCommit();
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    checkOpen();
+    return connection.getCatalog();
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    checkOpen();
+    return connection.getClientInfo();
+  }
+
+  @Override
+  public String getClientInfo( String name ) throws SQLException {
+    checkOpen();
+    return connection.getClientInfo( name );
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    checkOpen();
+    return connection.getHoldability();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    checkOpen();
+    return new DrillDatabaseMetaDataWrapper( connection.getMetaData(), this );
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException {
+    checkOpen();
+    return connection.getNetworkTimeout();
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    checkOpen();
+    return connection.getSchema();
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    checkOpen();
+    return connection.getTransactionIsolation();
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    checkOpen();
+    return connection.getTypeMap();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    checkOpen();
+    return connection.getWarnings();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return connection.isClosed();
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    checkOpen();
+    if ( !capabilities.isSupported( Feature.IS_READ_ONLY ) ) {
+      return false;
+    }
+    try {
+      return connection.isReadOnly();
+    } catch ( SQLException e ) {
+      if ( capabilities.recordFailure( Feature.IS_READ_ONLY, e ) ) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean isValid( int timeout ) throws SQLException {
+    return connection.isValid( timeout );
+  }
+
+  @Override
+  public String nativeSQL( String sql ) throws SQLException {
+    checkOpen();
+    return connection.nativeSQL( sql );
+  }
+
+  @Override
+  public CallableStatement prepareCall( String sql ) throws SQLException {
+    checkOpen();
+    return connection.prepareCall( sql );
+  }
+
+  @Override
+  public CallableStatement prepareCall( String sql, int resultSetType, int resultSetConcurrency ) throws SQLException {
+    checkOpen();
+    return connection.prepareCall( sql, resultSetType, resultSetConcurrency );
+  }
+
+  @Override
+  public CallableStatement prepareCall( String sql, int resultSetType, int resultSetConcurrency,
+    int resultSetHoldability ) throws SQLException {
+    checkOpen();
+    return connection.prepareCall( sql, resultSetType, resultSetConcurrency, resultSetHoldability );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement( String sql ) throws SQLException {
+    checkOpen();
+    recordStatement( sql );
+    List<Object> key = getCacheKey( sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0 );
+    PreparedStatement statement = takeCachedStatement( key );
+    if ( statement == null ) {
+      statement = connection.prepareStatement( sql );
+    }
+    return new DrillPreparedStatementWrapper( statement, this, sql, key );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement( String sql, int[] columnIndexes ) throws SQLException {
+    checkOpen();
+    recordStatement( sql );
+    return new DrillPreparedStatementWrapper( connection.prepareStatement( sql, columnIndexes ), this, sql, null );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement( String sql, String[] columnNames ) throws SQLException {
+    checkOpen();
+    recordStatement( sql );
+    return new DrillPreparedStatementWrapper( connection.prepareStatement( sql, columnNames ), this, sql, null );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement( String sql, int autoGeneratedKeys ) throws SQLException {
+    checkOpen();
+    recordStatement( sql );
+    return new DrillPreparedStatementWrapper( connection.prepareStatement( sql, autoGeneratedKeys ), this, sql,
+      null );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement( String sql, int resultSetType, int resultSetConcurrency )
+    throws SQLException {
+    checkOpen();
+    recordStatement( sql );
+    List<Object> key = getCacheKey( sql, resultSetType, resultSetConcurrency, 0 );
+    PreparedStatement statement = takeCachedStatement( key );
+    if ( statement == null ) {
+      statement = connection.prepareStatement( sql, resultSetType, resultSetConcurrency );
+    }
+    return new DrillPreparedStatementWrapper( statement, this, sql, key );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement( String sql, int resultSetType, int resultSetConcurrency,
+    int resultSetHoldability ) throws SQLException {
+    checkOpen();
+    recordStatement( sql );
+    List<Object> key = getCacheKey( sql, resultSetType, resultSetConcurrency, resultSetHoldability );
+    PreparedStatement statement = takeCachedStatement( key );
+    if ( statement == null ) {
+      statement = connection.prepareStatement( sql, resultSetType, resultSetConcurrency, resultSetHoldability );
+    }
+    return new DrillPreparedStatementWrapper( statement, this, sql, key );
+  }
+
+  @Override
+  public void releaseSavepoint( Savepoint savepoint ) throws SQLException {
+    checkOpen();
+    connection.releaseSavepoint( savepoint );
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    checkOpen();
+    connection.rollback();
+  }
+
+  @Override
+  public void rollback( Savepoint savepoint ) throws SQLException {
+    checkOpen();
+    connection.rollback( savepoint );
+  }
+
+  @Override
+  public void setAutoCommit( boolean autoCommit ) throws SQLException {
+    checkOpen();
+    if ( !capabilities.isSupported( Feature.SET_AUTO_COMMIT ) ) {
+      return;
+    }
+    try {
+      connection.setAutoCommit( autoCommit );
+    } catch ( SQLException e ) {
+      if ( !capabilities.recordFailure( Feature.SET_AUTO_COMMIT, e ) ) {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void setCatalog( String catalog ) throws SQLException {
+    checkOpen();
+    connection.setCatalog( catalog );
+    recordSchemaChange();
+  }
+
+  @Override
+  public void setClientInfo( Properties properties ) throws SQLClientInfoException {
+    checkClientInfoOpen();
+    connection.setClientInfo( properties );
+  }
+
+  @Override
+  public void setClientInfo( String name, String value ) throws SQLClientInfoException {
+    checkClientInfoOpen();
+    connection.setClientInfo( name, value );
+  }
+
+  @Override
+  public void setHoldability( int holdability ) throws SQLException {
+    checkOpen();
+    connection.setHoldability( holdability );
+  }
+
+  @Override
+  public void setNetworkTimeout( Executor executor, int milliseconds ) throws SQLException {
+    checkOpen();
+    connection.setNetworkTimeout( executor, milliseconds );
+  }
+
+  @Override
+  public void setReadOnly( boolean readOnly ) throws SQLException {
+    checkOpen();
+    if ( !capabilities.isSupported( Feature.SET_READ_ONLY ) ) {
+      return;
+    }
+    try {
+      connection.setReadOnly( readOnly );
+    } catch ( SQLException e ) {
+      if ( !capabilities.recordFailure( Feature.SET_READ_ONLY, e ) ) {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    checkOpen();
+    return connection.setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint( String name ) throws SQLException {
+    checkOpen();
+    return connection.setSavepoint( name );
+  }
+
+  @Override
+  public void setSchema( String schema ) throws SQLException {
+    checkOpen();
+    connection.setSchema( schema );
+    recordSchemaChange();
+  }
+
+  @Override
+  public void setTransactionIsolation( int transactionIsolation ) throws SQLException {
+    checkOpen();
+    connection.setTransactionIsolation( transactionIsolation );
+  }
+
+  @Override
+  public void setTypeMap( Map<String, Class<?>> map ) throws SQLException {
+    checkOpen();
+    connection.setTypeMap( map );
+  }
+
+  @Override
+  public <T> T unwrap( Class<T> iface ) throws SQLException {
+    return DrillWrappers.unwrap( this, connection, iface );
+  }
+
+  @Override
+  public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+    return DrillWrappers.isWrapperFor( this, connection, iface );
+  }
+}
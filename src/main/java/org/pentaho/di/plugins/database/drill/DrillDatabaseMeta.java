@@ -4,11 +4,18 @@ import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.BaseDatabaseMeta;
 import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.encryption.Encr;
+import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.plugins.DatabaseMetaPlugin;
 import org.pentaho.di.core.row.ValueMetaInterface;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 @DatabaseMetaPlugin( type = "drill", typeDescription = "Apache Drill" )
 public class DrillDatabaseMeta extends BaseDatabaseMeta implements DatabaseInterface {
@@ -27,6 +34,16 @@ public class DrillDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
       "threads",
       "version");
 
+  /**
+   * The session options offered in the Options tab of new connections, commonly tuned for ETL workloads
+   */
+  private static final List<String> DEFAULT_SESSION_OPTIONS =
+    Arrays.asList(
+      "planner.width.max_per_node",
+      "planner.slice_target",
+      "store.format",
+      "exec.queue.enable" );
+
   @Override
   public int[] getAccessTypeList () {
     return new int[]{DatabaseMeta.TYPE_ACCESS_NATIVE, DatabaseMeta.TYPE_ACCESS_JNDI};
@@ -45,12 +62,133 @@ public class DrillDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
 
   @Override
   public String getURL ( String hostname, String port, String databaseName ) {
+    if ( isDirectDrillbits() ) {
+      return "jdbc:drill:drillbit=" + getDrillbits( hostname, port )
+            + (!Const.isEmpty ( databaseName ) ? ";schema=" + databaseName : "");
+    }
     return "jdbc:drill:zk=" + hostname
           + (!Const.isEmpty ( port ) ? ":" + port : "")
           + (!Const.isEmpty ( databaseName ) ? ";schema=" + databaseName : "");
 
   }
 
+  /**
+   * @return true if the connection goes to a list of drillbits instead of through ZooKeeper
+   */
+  public boolean isDirectDrillbits() {
+    String directDrillbits =
+      getExtraOptions().get( getPluginId() + "." + DrillConnectionConfig.OPTION_DIRECT_DRILLBITS );
+    return directDrillbits != null && Boolean.parseBoolean( directDrillbits.trim() );
+  }
+
+  /**
+   * @return the schemas (or schema patterns) listed in the database explorer, empty to list all schemas
+   */
+  public List<String> getBrowseSchemas() {
+    List<String> browseSchemas = new ArrayList<String>();
+    String schemas = getExtraOptions().get( getPluginId() + "." + DrillConnectionConfig.OPTION_BROWSE_SCHEMAS );
+    if ( schemas != null ) {
+      for ( String schema : schemas.split( "," ) ) {
+        if ( schema.trim().length() > 0 ) {
+          browseSchemas.add( schema.trim() );
+        }
+      }
+    }
+    return browseSchemas;
+  }
+
+  /**
+   * Drops the cached DatabaseMetaData results and query layouts of this connection (see {@link DrillMetadataCache}),
+   * so the database explorer and the "Get fields" buttons see tables and columns created since they were cached. The
+   * connection is identified by the URL, options, user and password Kettle connects with.
+   * <p/>
+   * Kettle 5.3 has no hook that tells a database plugin to drop its caches: the "Clear cache" action of the database
+   * explorer only clears Kettle's own DBCache. Nothing in Kettle calls this method; call it from a script or a User
+   * Defined Java Class step after changing tables, or use the <code>metadataCacheTtl</code> option to bound how long
+   * results are kept.
+   *
+   * @param databaseMeta the connection
+   * @throws KettleDatabaseException if the URL of the connection cannot be built
+   * @throws SQLException            if a plugin option of the connection has an invalid value
+   */
+  public void clearMetadataCache( DatabaseMeta databaseMeta ) throws KettleDatabaseException, SQLException {
+    String url = databaseMeta.environmentSubstitute( databaseMeta.getURL() );
+    // The user and password are passed to the driver as Kettle passes them when it connects
+    Properties info = new Properties();
+    String username = databaseMeta.environmentSubstitute( databaseMeta.getUsername() );
+    String password = Encr.decryptPasswordOptionallyEncrypted(
+      databaseMeta.environmentSubstitute( databaseMeta.getPassword() ) );
+    if ( !Const.isEmpty( username ) || !Const.isEmpty( password ) ) {
+      info.setProperty( "user", Const.NVL( username, " " ) );
+      info.setProperty( "password", Const.NVL( password, "" ) );
+    }
+    DrillMetadataCache.flush( DrillConnectionConfig.parse( url, info ) );
+  }
+
+  /**
+   * Builds the drillbit list of a direct URL: the port is added to every host that doesn't have one. The Drill client
+   * takes a single drillbit, so {@link DrillbitDiscovery} hands them to it one at a time until a connect succeeds.
+   *
+   * @param hostnames the comma separated drillbit hosts, optionally with port
+   * @param port      the default user port of the drillbits
+   * @return the drillbit list
+   */
+  private String getDrillbits( String hostnames, String port ) {
+    StringBuilder drillbits = new StringBuilder();
+    for ( String hostname : hostnames.split( "," ) ) {
+      hostname = hostname.trim();
+      if ( hostname.length() == 0 ) {
+        continue;
+      }
+      if ( drillbits.length() > 0 ) {
+        drillbits.append( ',' );
+      }
+      drillbits.append( hostname );
+      if ( !Const.isEmpty( port ) && hostname.indexOf( ':' ) < 0 ) {
+        drillbits.append( ':' ).append( port );
+      }
+    }
+    return drillbits.toString();
+  }
+
+  /**
+   * @return the separator between the URL and the options: Drill URLs take their parameters after a semicolon
+   */
+  @Override
+  public String getExtraOptionIndicator() {
+    return DrillConnectionConfig.URL_SEPARATOR;
+  }
+
+  /**
+   * @return the separator between the options
+   */
+  @Override
+  public String getExtraOptionSeparator() {
+    return DrillConnectionConfig.URL_SEPARATOR;
+  }
+
+  /**
+   * @return the plugin options, with their default values, shown in the Options tab of new connections
+   */
+  @Override
+  public Map<String, String> getDefaultOptions() {
+    Map<String, String> defaultOptions = new HashMap<String, String>();
+    defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.OPTION_COLUMN_NAMES,
+      DrillConnectionConfig.ColumnNaming.STRIP.getCode() );
+    defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.OPTION_POOLED, "false" );
+    defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.OPTION_SHARED, "false" );
+    defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.OPTION_DIRECT_DRILLBITS, "false" );
+    // Listed empty, so all schemas are browsed until some are filled in, but new connections leave the system schemas
+    // out of the database explorer
+    defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.OPTION_BROWSE_SCHEMAS, "" );
+    defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.OPTION_HIDE_SYSTEM_SCHEMAS, "true" );
+    // Common session options, left empty so they are not set until a value is filled in
+    for ( String sessionOption : DEFAULT_SESSION_OPTIONS ) {
+      defaultOptions.put( getPluginId() + "." + DrillConnectionConfig.SESSION_OPTION_PREFIX + sessionOption, "" );
+    }
+    return defaultOptions;
+  }
+
   @Override
   public String getAddColumnStatement ( String arg0, ValueMetaInterface arg1, String arg2, boolean arg3, String arg4,
                                         boolean arg5 ) {
@@ -165,6 +303,43 @@ public class DrillDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     return new String[] { "TABLES" };
   }
 
+  /**
+   * @param tableName the name of the table
+   * @return a zero-row query giving the fields of the table; Drill plans it without reading the files
+   */
+  @Override
+  public String getSQLQueryFields( String tableName ) {
+    return "SELECT * FROM " + tableName + " LIMIT 0";
+  }
+
+  /**
+   * @param tablename the name of the table
+   * @return a zero-row query that fails if the table does not exist
+   */
+  @Override
+  public String getSQLTableExists( String tablename ) {
+    return getSQLQueryFields( tablename );
+  }
+
+  /**
+   * @param columnname the name of the column
+   * @param tablename  the name of the table
+   * @return a zero-row query that fails if the column does not exist
+   */
+  @Override
+  public String getSQLColumnExists( String columnname, String tablename ) {
+    return "SELECT " + columnname + " FROM " + tablename + " LIMIT 0";
+  }
+
+  /**
+   * @return true: the fields of a query are read from its prepared statement, which falls back to a zero-row probe of
+   * the query (see {@link DrillQueryLayout}) instead of running it
+   */
+  @Override
+  public boolean supportsPreparedStatementMetadataRetrieval() {
+    return true;
+  }
+
   /**
    * @param tableName
    * @return true if the specified table is a system table
@@ -0,0 +1,659 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.core.Const;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * DrillMetadataCache keeps the results of DatabaseMetaData calls (getTables, getColumns, getSchemas etc.) for a while,
+ * so the database explorer, the "Get fields" buttons and Kettle's checks don't have Drill run an INFORMATION_SCHEMA
+ * query every time. It is used when the <code>metadataCacheTtl</code> option is set (see
+ * {@link DrillConnectionConfig}); there is one cache per URL, connection properties and metadata options, shared by all
+ * connections with the same configuration.
+ * <p/>
+ * Results are kept for the TTL and the least recently used results are dropped when the cache holds more than
+ * <code>metadataCacheSize</code> of them. {@link #flushAll()} and {@link #flush(DrillConnectionConfig)} drop results
+ * before they expire, for instance after tables were created.
+ * <p/>
+ * With the <code>metadataPrefetch</code> option, the first getColumns call for a schema reads the columns of all tables
+ * of the schema in one Drill query, and the getColumns calls for the other tables of the schema are answered from
+ * them. Building the table tree of a schema then takes one query instead of one per table.
+ * <p/>
+ * With the <code>metadataSnapshot</code> option, the cached results are also saved to a file in the
+ * <code>drill-metadata</code> directory of the Kettle home directory, and read back when the cache is created in the
+ * next session. Results read from the snapshot are handed out right away and refreshed from Drill in the background
+ * on first use, so the database explorer shows the tree without waiting for INFORMATION_SCHEMA queries.
+ * <p/>
+ * With the <code>metadataAsyncRefresh</code> option, expired results are handed out the same way while they are
+ * refreshed in the background (see {@link DrillMetadataRefresher}), instead of the call waiting for Drill. Only the
+ * first call for a result ever waits.
+ * <p/>
+ * The cache also keeps the layouts of queries (see {@link DrillQueryLayout}) by normalized SQL text, current schema
+ * and session options, so preparing a transformation again does not ask Drill for the fields of its queries. They
+ * expire with the TTL, and are dropped when the cache is flushed or a reloaded metadata result shows that tables or
+ * columns changed.
+ */
+public final class DrillMetadataCache {
+
+  /**
+   * The number of milliseconds a snapshot is saved after a result was cached, so a burst of calls is saved once
+   */
+  private static final long SNAPSHOT_SAVE_DELAY_MILLIS = 5000L;
+
+  private static final ConcurrentMap<List<Object>, DrillMetadataCache> caches =
+    new ConcurrentHashMap<List<Object>, DrillMetadataCache>();
+
+  /**
+   * Loads the result of a metadata call from Drill
+   */
+  interface Loader {
+
+    /**
+     * @return the Drill result set of the call
+     * @throws SQLException if the call fails
+     */
+    ResultSet load() throws SQLException;
+  }
+
+  private final long ttlMillis;
+
+  private final int maxSize;
+
+  private final boolean prefetch;
+
+  private final boolean asyncRefresh;
+
+  /**
+   * The snapshot file, or null if the cache is not saved
+   */
+  private final File snapshot;
+
+  /**
+   * The digest of the cache key, written to the snapshot to recognize it
+   */
+  private final String digest;
+
+  private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<List<Object>, Entry>( 16, 0.75f, true );
+
+  private final LinkedHashMap<List<Object>, LayoutEntry> layouts =
+    new LinkedHashMap<List<Object>, LayoutEntry>( 16, 0.75f, true );
+
+  private boolean saveScheduled;
+
+  /**
+   * The keys of the configurations that use the cache (see {@link DrillConnectionConfig#getKey()}), to flush it by
+   */
+  private final Set<List<Object>> configKeys =
+    Collections.newSetFromMap( new ConcurrentHashMap<List<Object>, Boolean>() );
+
+  private DrillMetadataCache( long ttlMillis, int maxSize, boolean prefetch, boolean asyncRefresh,
+                              File snapshot, String digest ) {
+    this.ttlMillis = ttlMillis;
+    this.maxSize = maxSize;
+    this.prefetch = prefetch;
+    this.asyncRefresh = asyncRefresh;
+    this.snapshot = snapshot;
+    this.digest = digest;
+  }
+
+  /**
+   * Returns the metadata cache for the URL, properties and metadata options of a configuration, creating it if needed.
+   * Configurations that differ in an option of the cache, or in the schemas they list, get caches of their own.
+   *
+   * @param config the connection configuration
+   * @return the cache, or null if the configuration does not cache metadata
+   */
+  static DrillMetadataCache forConfig( DrillConnectionConfig config ) {
+    if ( config.getMetadataCacheTtlMillis() <= 0 ) {
+      return null;
+    }
+    Properties info = new Properties();
+    if ( config.getInfo() != null ) {
+      info.putAll( config.getInfo() );
+    }
+    List<Object> key = Arrays.<Object>asList( config.getUrl(), info, config.getMetadataCacheTtlMillis(),
+      config.getMetadataCacheSize(), config.isMetadataPrefetch(), config.isMetadataSnapshot(),
+      config.isMetadataAsyncRefresh(), config.getBrowseSchemas(), config.isHideSystemSchemas() );
+    DrillMetadataCache cache = caches.get( key );
+    if ( cache == null ) {
+      String digest = config.isMetadataSnapshot() ? getDigest( key ) : null;
+      File snapshot = digest == null ? null
+        : new File( Const.getKettleDirectory() + File.separator + "drill-metadata", digest + ".snapshot" );
+      DrillMetadataCache newCache = new DrillMetadataCache( config.getMetadataCacheTtlMillis(),
+        config.getMetadataCacheSize(), config.isMetadataPrefetch(), config.isMetadataAsyncRefresh(), snapshot,
+        digest );
+      cache = caches.putIfAbsent( key, newCache );
+      if ( cache == null ) {
+        cache = newCache;
+        cache.loadSnapshot();
+      }
+    }
+    cache.configKeys.add( config.getKey() );
+    return cache;
+  }
+
+  /**
+   * @return the SHA-256 digest of a cache key in hex, naming the snapshot file without showing the URL or password
+   */
+  private static String getDigest( List<Object> key ) {
+    try {
+      byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( String.valueOf( key ).getBytes( "UTF-8" ) );
+      StringBuilder hex = new StringBuilder( hash.length * 2 );
+      for ( byte b : hash ) {
+        hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException e ) {
+      return null;
+    } catch ( IOException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * Builds the key of a metadata call.
+   *
+   * @param method the name of the DatabaseMetaData method
+   * @param args   the arguments of the call
+   * @return the key
+   */
+  static List<Object> getKey( String method, Object... args ) {
+    List<Object> key = new ArrayList<Object>( args == null ? 1 : args.length + 1 );
+    key.add( method );
+    if ( args != null ) {
+      for ( Object arg : args ) {
+        // String[] types of getTables
+        key.add( arg instanceof Object[] ? Arrays.asList( (Object[]) arg ) : arg );
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Returns the result of a metadata call, from the cache or loaded from Drill. A result read from the snapshot, or
+   * an expired result in async refresh mode, is returned as it is and refreshed in the background.
+   *
+   * @param key       the key of the call
+   * @param loader    loads the result from Drill
+   * @param refresher runs the background refreshes of the calling connection
+   * @return a new result set over the cached rows, or null if Drill returned no result set
+   * @throws SQLException if the result cannot be loaded
+   */
+  ResultSet get( List<Object> key, Loader loader, DrillMetadataRefresher refresher ) throws SQLException {
+    Entry entry = getEntry( key, loader, false, refresher );
+    return entry == null ? null : new DrillCachedResultSet( entry.rows );
+  }
+
+  /**
+   * Returns the entry of a metadata call, loading it if it is not cached.
+   *
+   * @param byTable true to group the rows of the entry by table name
+   */
+  private Entry getEntry( List<Object> key, Loader loader, boolean byTable, DrillMetadataRefresher refresher )
+    throws SQLException {
+    Entry entry = getEntry( key );
+    if ( entry == null ) {
+      return load( key, loader, byTable );
+    }
+    if ( entry.fromSnapshot || entry.expiresAt <= System.currentTimeMillis() ) {
+      refresh( key, loader, byTable, entry, refresher );
+    }
+    return entry;
+  }
+
+  /**
+   * @return the cached entry, or null if there is none; expired entries are not returned, unless they are refreshed in
+   * the background. They stay in the cache until they are reloaded, so the reload can tell whether they changed.
+   */
+  private synchronized Entry getEntry( List<Object> key ) {
+    Entry entry = entries.get( key );
+    if ( entry != null && !asyncRefresh && entry.expiresAt <= System.currentTimeMillis() ) {
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Caches an entry. When it replaces an entry with other rows, the tables or columns have changed and so may have the
+   * layouts of the queries on them, so the cached layouts are dropped.
+   */
+  private synchronized void putEntry( List<Object> key, Entry entry ) {
+    Entry replaced = entries.put( key, entry );
+    if ( replaced != null && !isSameRows( replaced.rows, entry.rows ) ) {
+      layouts.clear();
+    }
+    while ( entries.size() > maxSize ) {
+      entries.remove( entries.keySet().iterator().next() );
+    }
+  }
+
+  /**
+   * @return true if two results have the same columns and rows
+   */
+  private static boolean isSameRows( DrillCachedResultSet.Rows rows, DrillCachedResultSet.Rows other ) {
+    return Arrays.equals( rows.labels, other.labels ) && Arrays.equals( rows.types, other.types )
+      && Arrays.deepEquals( rows.rows.toArray(), other.rows.toArray() );
+  }
+
+  /**
+   * Loads the result of a metadata call from Drill into the cache.
+   *
+   * @return the new entry, or null if Drill returned no result set
+   */
+  private Entry load( List<Object> key, Loader loader, boolean byTable ) throws SQLException {
+    ResultSet resultSet = loader.load();
+    if ( resultSet == null ) {
+      return null;
+    }
+    DrillCachedResultSet.Rows rows = DrillCachedResultSet.Rows.read( resultSet );
+    Entry entry =
+      new Entry( rows, byTable ? groupByTable( rows ) : null, System.currentTimeMillis() + ttlMillis, false );
+    putEntry( key, entry );
+    scheduleSave();
+    return entry;
+  }
+
+  /**
+   * Reloads a stale entry in the background; the fresh result replaces it when it arrives. If the refresh fails or is
+   * cancelled, the entry is kept and reloaded on its next use.
+   */
+  private void refresh( final List<Object> key, final Loader loader, final boolean byTable, final Entry entry,
+                        final DrillMetadataRefresher refresher ) {
+    synchronized ( this ) {
+      if ( entry.refreshing || refresher.isCancelled() ) {
+        return;
+      }
+      entry.refreshing = true;
+    }
+    refresher.submit( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if ( !refresher.isCancelled() ) {
+            load( key, loader, byTable );
+          }
+        } catch ( SQLException e ) {
+          // keep the stale result for now
+        } finally {
+          synchronized ( DrillMetadataCache.this ) {
+            entry.refreshing = false;
+          }
+        }
+      }
+    } );
+  }
+
+  /**
+   * Returns the cached layout of a query.
+   *
+   * @param sql            the SQL text of the query
+   * @param schema         the current schema of the connection, null if the driver cannot tell
+   * @param sessionOptions the session options of the connection
+   * @return the layout, or null if it is not cached, has expired or the SQL is not a query
+   */
+  DrillQueryLayout getLayout( String sql, String schema, Map<String, String> sessionOptions ) {
+    if ( !DrillQueryLayout.isQuery( sql ) ) {
+      return null;
+    }
+    List<Object> key = getKey( "getLayout", DrillQueryLayout.normalize( sql ), schema, sessionOptions );
+    synchronized ( this ) {
+      LayoutEntry entry = layouts.get( key );
+      if ( entry != null && entry.expiresAt <= System.currentTimeMillis() ) {
+        layouts.remove( key );
+        return null;
+      }
+      return entry == null ? null : entry.layout;
+    }
+  }
+
+  /**
+   * Caches the layout of a query. Layouts without columns are not cached: they are what drivers that cannot describe
+   * a prepared statement return, not the layout of the query.
+   *
+   * @param sql            the SQL text of the query
+   * @param schema         the current schema of the connection, null if the driver cannot tell
+   * @param sessionOptions the session options of the connection
+   * @param metaData       the metadata of the query's result set
+   * @return the cached copy of the metadata, or the metadata itself if the SQL is not a query or it has no columns
+   * @throws SQLException if the metadata cannot be read
+   */
+  ResultSetMetaData putLayout( String sql, String schema, Map<String, String> sessionOptions,
+                               ResultSetMetaData metaData ) throws SQLException {
+    if ( !DrillQueryLayout.isQuery( sql ) || metaData.getColumnCount() == 0 ) {
+      return metaData;
+    }
+    DrillQueryLayout layout =
+      metaData instanceof DrillQueryLayout ? (DrillQueryLayout) metaData : new DrillQueryLayout( metaData );
+    List<Object> key = getKey( "getLayout", DrillQueryLayout.normalize( sql ), schema, sessionOptions );
+    synchronized ( this ) {
+      layouts.put( key, new LayoutEntry( layout, System.currentTimeMillis() + ttlMillis ) );
+      while ( layouts.size() > maxSize ) {
+        layouts.remove( layouts.keySet().iterator().next() );
+      }
+    }
+    return layout;
+  }
+
+  /**
+   * Returns the current schema of a connection, which unqualified table names in a query resolve against.
+   *
+   * @param connection the connection
+   * @return the schema, or null if the driver cannot tell; the default schema of the URL is in effect then
+   */
+  static String getSchema( Connection connection ) {
+    try {
+      return connection.getSchema();
+    } catch ( SQLException | RuntimeException | LinkageError e ) {
+      return null;
+    }
+  }
+
+  /**
+   * Answers a getColumns call from the columns of the whole schema, reading them if they are not cached yet. This is
+   * only done in prefetch mode and for calls naming a schema: a schema pattern with a wildcard or an escape could match
+   * several schemas, or a schema whose name differs from the pattern.
+   *
+   * @param metaData          the Drill database metadata
+   * @param refresher         runs the background refreshes of the calling connection
+   * @param catalog           the catalog
+   * @param schemaPattern     the schema pattern
+   * @param tableNamePattern  the table name pattern
+   * @param columnNamePattern the column name pattern
+   * @return a new result set over the cached columns, or null if the call is not answered from the schema
+   * @throws SQLException if the columns of the schema cannot be read
+   */
+  ResultSet getColumns( final DatabaseMetaData metaData, DrillMetadataRefresher refresher, final String catalog,
+                        final String schemaPattern, String tableNamePattern, String columnNamePattern )
+    throws SQLException {
+    if ( !prefetch || schemaPattern == null || isPattern( schemaPattern ) ) {
+      return null;
+    }
+    Entry entry = getEntry( getKey( "getSchemaColumns", catalog, schemaPattern ), new Loader() {
+      @Override
+      public ResultSet load() throws SQLException {
+        return metaData.getColumns( catalog, schemaPattern, "%", "%" );
+      }
+    }, true, refresher );
+    if ( entry == null ) {
+      return null;
+    }
+
+    List<Object[]> selected;
+    if ( isAll( tableNamePattern ) ) {
+      selected = entry.rows.rows;
+    } else if ( !isPattern( tableNamePattern ) ) {
+      selected = new ArrayList<Object[]>();
+      for ( Map<String, List<Object[]>> tables : entry.rowsByTable.values() ) {
+        List<Object[]> tableRows = tables.get( tableNamePattern );
+        if ( tableRows != null ) {
+          selected.addAll( tableRows );
+        }
+      }
+    } else {
+      Pattern tablePattern = toRegex( tableNamePattern );
+      selected = new ArrayList<Object[]>();
+      for ( Map<String, List<Object[]>> tables : entry.rowsByTable.values() ) {
+        for ( Map.Entry<String, List<Object[]>> table : tables.entrySet() ) {
+          if ( tablePattern.matcher( table.getKey() ).matches() ) {
+            selected.addAll( table.getValue() );
+          }
+        }
+      }
+    }
+    if ( !isAll( columnNamePattern ) ) {
+      Pattern columnPattern = toRegex( columnNamePattern );
+      int columnName = entry.rows.indexOf( "COLUMN_NAME" );
+      List<Object[]> columns = new ArrayList<Object[]>();
+      for ( Object[] row : selected ) {
+        if ( row[columnName] != null && columnPattern.matcher( row[columnName].toString() ).matches() ) {
+          columns.add( row );
+        }
+      }
+      selected = columns;
+    }
+    return new DrillCachedResultSet( entry.rows.withRows( selected ) );
+  }
+
+  /**
+   * Groups the rows of a getColumns result by schema and table name, keeping their order, so tables of the same name
+   * in different schemas stay apart.
+   */
+  private static Map<String, Map<String, List<Object[]>>> groupByTable( DrillCachedResultSet.Rows rows )
+    throws SQLException {
+    int schemaName = rows.indexOf( "TABLE_SCHEM" );
+    int tableName = rows.indexOf( "TABLE_NAME" );
+    if ( schemaName < 0 || tableName < 0 ) {
+      throw new SQLException( "The getColumns result has no TABLE_SCHEM or TABLE_NAME column" );
+    }
+    Map<String, Map<String, List<Object[]>>> rowsByTable = new LinkedHashMap<String, Map<String, List<Object[]>>>();
+    for ( Object[] row : rows.rows ) {
+      String schema = String.valueOf( row[schemaName] );
+      Map<String, List<Object[]>> tables = rowsByTable.get( schema );
+      if ( tables == null ) {
+        tables = new LinkedHashMap<String, List<Object[]>>();
+        rowsByTable.put( schema, tables );
+      }
+      String table = String.valueOf( row[tableName] );
+      List<Object[]> tableRows = tables.get( table );
+      if ( tableRows == null ) {
+        tableRows = new ArrayList<Object[]>();
+        tables.put( table, tableRows );
+      }
+      tableRows.add( row );
+    }
+    return rowsByTable;
+  }
+
+  /**
+   * @return true if a search pattern matches everything
+   */
+  private static boolean isAll( String pattern ) {
+    return pattern == null || "%".equals( pattern );
+  }
+
+  /**
+   * @return true if a search pattern has wildcards or escapes, false if it is a plain name
+   */
+  static boolean isPattern( String pattern ) {
+    return pattern.indexOf( '%' ) >= 0 || pattern.indexOf( '_' ) >= 0 || pattern.indexOf( '\\' ) >= 0;
+  }
+
+  /**
+   * Converts a DatabaseMetaData search pattern to a regular expression: % matches any characters, _ matches one
+   * character and a backslash escapes the next character.
+   *
+   * @param pattern the search pattern
+   * @return the regular expression
+   */
+  static Pattern toRegex( String pattern ) {
+    StringBuilder regex = new StringBuilder( pattern.length() + 8 );
+    for ( int i = 0; i < pattern.length(); i++ ) {
+      char c = pattern.charAt( i );
+      if ( c == '\\' && i + 1 < pattern.length() ) {
+        regex.append( Pattern.quote( String.valueOf( pattern.charAt( ++i ) ) ) );
+      } else if ( c == '%' ) {
+        regex.append( ".*" );
+      } else if ( c == '_' ) {
+        regex.append( '.' );
+      } else {
+        regex.append( Pattern.quote( String.valueOf( c ) ) );
+      }
+    }
+    return Pattern.compile( regex.toString(), Pattern.DOTALL );
+  }
+
+  /**
+   * Drops all cached results and query layouts of this cache, and its snapshot.
+   */
+  public void flush() {
+    synchronized ( this ) {
+      entries.clear();
+      layouts.clear();
+    }
+    if ( snapshot != null ) {
+      snapshot.delete();
+    }
+  }
+
+  /**
+   * Saves the snapshot a little later, unless a save is already scheduled.
+   */
+  private void scheduleSave() {
+    synchronized ( this ) {
+      if ( snapshot == null || saveScheduled ) {
+        return;
+      }
+      saveScheduled = true;
+    }
+    DrillMetadataRefresher.schedule( new Runnable() {
+      @Override
+      public void run() {
+        saveSnapshot();
+      }
+    }, SNAPSHOT_SAVE_DELAY_MILLIS );
+  }
+
+  /**
+   * Writes the cached results to the snapshot file.
+   */
+  void saveSnapshot() {
+    LinkedHashMap<List<Object>, DrillCachedResultSet.Rows> rowsByKey =
+      new LinkedHashMap<List<Object>, DrillCachedResultSet.Rows>();
+    synchronized ( this ) {
+      saveScheduled = false;
+      for ( Map.Entry<List<Object>, Entry> entry : entries.entrySet() ) {
+        rowsByKey.put( entry.getKey(), entry.getValue().rows );
+      }
+    }
+    try {
+      DrillMetadataSnapshot.write( snapshot, digest, rowsByKey );
+    } catch ( IOException e ) {
+      // the snapshot is only a head start for the next session
+    }
+  }
+
+  /**
+   * Reads the results saved by a previous session, if the snapshot file exists and has the current format. A snapshot
+   * that cannot be read is ignored, it never keeps a connection from opening.
+   */
+  private void loadSnapshot() {
+    if ( snapshot == null || !snapshot.isFile() ) {
+      return;
+    }
+    try {
+      Map<List<Object>, DrillCachedResultSet.Rows> rowsByKey = DrillMetadataSnapshot.read( snapshot, digest );
+      if ( rowsByKey == null ) {
+        return;
+      }
+      for ( Map.Entry<List<Object>, DrillCachedResultSet.Rows> saved : rowsByKey.entrySet() ) {
+        DrillCachedResultSet.Rows rows = saved.getValue();
+        boolean byTable = !saved.getKey().isEmpty() && "getSchemaColumns".equals( saved.getKey().get( 0 ) );
+        // Kept until refreshed, however old the snapshot is
+        putEntry( saved.getKey(), new Entry( rows, byTable ? groupByTable( rows ) : null, Long.MAX_VALUE, true ) );
+      }
+    } catch ( IOException e ) {
+      // unreadable snapshot, start empty
+    } catch ( SQLException e ) {
+      // snapshot with unexpected columns, start empty
+    } catch ( RuntimeException e ) {
+      // corrupt snapshot, keep what was read
+    }
+  }
+
+  /**
+   * Drops the cached results of all connections.
+   */
+  public static void flushAll() {
+    for ( DrillMetadataCache cache : caches.values() ) {
+      cache.flush();
+    }
+  }
+
+  /**
+   * Drops the cached results of the connections made with a configuration.
+   *
+   * @param config the connection configuration
+   */
+  public static void flush( DrillConnectionConfig config ) {
+    List<Object> configKey = config.getKey();
+    for ( DrillMetadataCache cache : caches.values() ) {
+      if ( cache.configKeys.contains( configKey ) ) {
+        cache.flush();
+      }
+    }
+  }
+
+  /**
+   * @return the number of cached results
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * A cached query layout and the time it expires
+   */
+  private static final class LayoutEntry {
+
+    final DrillQueryLayout layout;
+
+    final long expiresAt;
+
+    LayoutEntry( DrillQueryLayout layout, long expiresAt ) {
+      this.layout = layout;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * A cached result and the time it expires
+   */
+  private static final class Entry {
+
+    final DrillCachedResultSet.Rows rows;
+
+    /**
+     * The rows by schema and table name, for the columns of a whole schema; null for other results
+     */
+    final Map<String, Map<String, List<Object[]>>> rowsByTable;
+
+    final long expiresAt;
+
+    /**
+     * True if the result was read from the snapshot and is not refreshed yet
+     */
+    final boolean fromSnapshot;
+
+    /**
+     * True while the result is refreshed in the background; guarded by the cache
+     */
+    boolean refreshing;
+
+    Entry( DrillCachedResultSet.Rows rows, Map<String, Map<String, List<Object[]>>> rowsByTable, long expiresAt,
+           boolean fromSnapshot ) {
+      this.rows = rows;
+      this.rowsByTable = rowsByTable;
+      this.expiresAt = expiresAt;
+      this.fromSnapshot = fromSnapshot;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * DrillMetadataQueries answers the getTables and getSchemas calls of DatabaseMetaData with INFORMATION_SCHEMA queries
+ * that filter on the Drill side. Drill's own implementation takes a single schema pattern, so the database explorer
+ * gets every schema of every storage plugin, system schemas included, and Kettle filters afterwards. With the
+ * <code>browseSchemas</code> option only the listed schemas are queried, and with the <code>hideSystemSchemas</code>
+ * option the <code>sys</code> and <code>INFORMATION_SCHEMA</code> schemas are left out. A schema asked for by name,
+ * rather than by a pattern, is always listed.
+ * <p/>
+ * The queries return the columns of the JDBC getTables and getSchemas results. Without either option, the calls go to
+ * the Drill driver as they are.
+ */
+final class DrillMetadataQueries {
+
+  /**
+   * The schemas left out by the <code>hideSystemSchemas</code> option
+   */
+  static final String SYSTEM_SCHEMAS = "'sys', 'INFORMATION_SCHEMA'";
+
+  private static final String TABLES_SQL = "SELECT TABLE_CATALOG AS TABLE_CAT, TABLE_SCHEMA AS TABLE_SCHEM, TABLE_NAME,"
+    + " TABLE_TYPE, CAST( NULL AS VARCHAR ) AS REMARKS, CAST( NULL AS VARCHAR ) AS TYPE_CAT,"
+    + " CAST( NULL AS VARCHAR ) AS TYPE_SCHEM, CAST( NULL AS VARCHAR ) AS TYPE_NAME,"
+    + " CAST( NULL AS VARCHAR ) AS SELF_REFERENCING_COL_NAME, CAST( NULL AS VARCHAR ) AS REF_GENERATION"
+    + " FROM INFORMATION_SCHEMA.`TABLES`";
+
+  private static final String TABLES_ORDER = " ORDER BY TABLE_TYPE, TABLE_CAT, TABLE_SCHEM, TABLE_NAME";
+
+  private static final String SCHEMAS_SQL =
+    "SELECT SCHEMA_NAME AS TABLE_SCHEM, CATALOG_NAME AS TABLE_CATALOG FROM INFORMATION_SCHEMA.SCHEMATA";
+
+  private static final String SCHEMAS_ORDER = " ORDER BY TABLE_CATALOG, TABLE_SCHEM";
+
+  private DrillMetadataQueries() {
+  }
+
+  /**
+   * @param config the connection configuration
+   * @return true if getTables and getSchemas are filtered on the Drill side
+   */
+  static boolean isFiltered( DrillConnectionConfig config ) {
+    return config.isHideSystemSchemas() || !config.getBrowseSchemas().isEmpty();
+  }
+
+  /**
+   * Lists the tables, filtered as configured.
+   *
+   * @param metaData         the Drill database metadata
+   * @param config           the connection configuration
+   * @param catalog          the catalog, or null for all
+   * @param schemaPattern    the schema pattern, or null for all
+   * @param tableNamePattern the table name pattern, or null for all
+   * @param types            the table types, or null for all
+   * @return the tables, in the layout of DatabaseMetaData.getTables
+   * @throws SQLException if the tables cannot be listed
+   */
+  static ResultSet getTables( DatabaseMetaData metaData, DrillConnectionConfig config, String catalog,
+                              String schemaPattern, String tableNamePattern, String[] types ) throws SQLException {
+    if ( !isFiltered( config ) ) {
+      return metaData.getTables( catalog, schemaPattern, tableNamePattern, types );
+    }
+    return query( metaData, getTablesSql( config, catalog, schemaPattern, tableNamePattern, types ) );
+  }
+
+  /**
+   * Lists the schemas, filtered as configured.
+   *
+   * @param metaData      the Drill database metadata
+   * @param config        the connection configuration
+   * @param catalog       the catalog, or null for all
+   * @param schemaPattern the schema pattern, or null for all
+   * @return the schemas, in the layout of DatabaseMetaData.getSchemas
+   * @throws SQLException if the schemas cannot be listed
+   */
+  static ResultSet getSchemas( DatabaseMetaData metaData, DrillConnectionConfig config, String catalog,
+                               String schemaPattern ) throws SQLException {
+    if ( !isFiltered( config ) ) {
+      return catalog == null && schemaPattern == null ? metaData.getSchemas()
+        : metaData.getSchemas( catalog, schemaPattern );
+    }
+    return query( metaData, getSchemasSql( config, catalog, schemaPattern ) );
+  }
+
+  /**
+   * Builds the query listing the tables. The values are inlined as SQL string literals, as the Drill driver does not
+   * support dynamic parameters.
+   *
+   * @param config           the connection configuration
+   * @param catalog          the catalog, or null for all
+   * @param schemaPattern    the schema pattern, or null for all
+   * @param tableNamePattern the table name pattern, or null for all
+   * @param types            the table types, or null for all
+   * @return the query
+   */
+  static String getTablesSql( DrillConnectionConfig config, String catalog, String schemaPattern,
+                              String tableNamePattern, String[] types ) {
+    StringBuilder where = new StringBuilder();
+    appendCondition( where, "TABLE_CATALOG = ", catalog );
+    appendSchemaConditions( where, config, "TABLE_SCHEMA", schemaPattern );
+    appendPatternCondition( where, "TABLE_NAME", tableNamePattern );
+    if ( types != null ) {
+      where.append( where.length() == 0 ? " WHERE " : " AND " ).append( "TABLE_TYPE IN (" );
+      for ( int i = 0; i < types.length; i++ ) {
+        where.append( i == 0 ? "" : ", " ).append( literal( types[i] ) );
+      }
+      where.append( ")" );
+    }
+    return TABLES_SQL + where + TABLES_ORDER;
+  }
+
+  /**
+   * Builds the query listing the schemas.
+   *
+   * @param config        the connection configuration
+   * @param catalog       the catalog, or null for all
+   * @param schemaPattern the schema pattern, or null for all
+   * @return the query
+   */
+  static String getSchemasSql( DrillConnectionConfig config, String catalog, String schemaPattern ) {
+    StringBuilder where = new StringBuilder();
+    appendCondition( where, "CATALOG_NAME = ", catalog );
+    appendSchemaConditions( where, config, "SCHEMA_NAME", schemaPattern );
+    return SCHEMAS_SQL + where + SCHEMAS_ORDER;
+  }
+
+  /**
+   * @param value a string
+   * @return the string as an SQL string literal, with its quotes doubled
+   */
+  static String literal( String value ) {
+    return "'" + value.replace( "'", "''" ) + "'";
+  }
+
+  private static void appendCondition( StringBuilder where, String condition, String value ) {
+    if ( value != null ) {
+      where.append( where.length() == 0 ? " WHERE " : " AND " ).append( condition ).append( literal( value ) );
+    }
+  }
+
+  /**
+   * Appends a condition on a search pattern: LIKE for a pattern with wildcards or escapes, an equality for a plain
+   * name.
+   */
+  private static void appendPatternCondition( StringBuilder where, String column, String pattern ) {
+    if ( pattern != null ) {
+      if ( DrillMetadataCache.isPattern( pattern ) ) {
+        appendCondition( where, column + " LIKE ", pattern );
+        where.append( " ESCAPE '\\'" );
+      } else {
+        appendCondition( where, column + " = ", pattern );
+      }
+    }
+  }
+
+  /**
+   * Appends the conditions on the schema: the requested pattern, the browsed schemas and the exclusion of the system
+   * schemas. A schema asked for by name is listed even if it is not browsed or is a system schema.
+   */
+  private static void appendSchemaConditions( StringBuilder where, DrillConnectionConfig config, String column,
+                                              String schemaPattern ) {
+    appendPatternCondition( where, column, schemaPattern );
+    if ( schemaPattern != null && !DrillMetadataCache.isPattern( schemaPattern ) ) {
+      return;
+    }
+    List<String> browseSchemas = config.getBrowseSchemas();
+    if ( !browseSchemas.isEmpty() ) {
+      where.append( where.length() == 0 ? " WHERE (" : " AND (" );
+      for ( int i = 0; i < browseSchemas.size(); i++ ) {
+        where.append( i == 0 ? "" : " OR " ).append( column ).append( " LIKE " )
+          .append( literal( browseSchemas.get( i ) ) ).append( " ESCAPE '\\'" );
+      }
+      where.append( ")" );
+    }
+    if ( config.isHideSystemSchemas() ) {
+      where.append( where.length() == 0 ? " WHERE " : " AND " )
+        .append( column ).append( " NOT IN (" ).append( SYSTEM_SCHEMAS ).append( ")" );
+    }
+  }
+
+  /**
+   * Runs a metadata query and reads its result into memory, so the statement can be closed right away.
+   */
+  private static ResultSet query( DatabaseMetaData metaData, String sql ) throws SQLException {
+    Statement statement = metaData.getConnection().createStatement();
+    try {
+      return new DrillCachedResultSet( DrillCachedResultSet.Rows.read( statement.executeQuery( sql ) ) );
+    } finally {
+      statement.close();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrillMetadataRefresher runs the background refreshes of the {@link DrillMetadataCache} started by one connection.
+ * The refreshes run on a small pool of daemon threads shared by all connections, so a metadata call never waits for
+ * Drill when it can be answered from a stale result.
+ * <p/>
+ * Closing the connection cancels its refreshes: the ones still queued are skipped and the running ones are interrupted.
+ * The cached results they were refreshing stay as they are, and are refreshed by the next call that uses them.
+ */
+final class DrillMetadataRefresher {
+
+  /**
+   * The number of threads refreshing metadata
+   */
+  static final int REFRESH_THREADS = 2;
+
+  private static ScheduledExecutorService executor;
+
+  /**
+   * The threads running a refresh of this connection
+   */
+  private final Set<Thread> running = new HashSet<Thread>();
+
+  private boolean cancelled;
+
+  private static synchronized ScheduledExecutorService getExecutor() {
+    if ( executor == null ) {
+      executor = Executors.newScheduledThreadPool( REFRESH_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "Drill metadata refresher" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    return executor;
+  }
+
+  /**
+   * Runs a task on the refresher threads after a delay, independently of any connection.
+   *
+   * @param task        the task
+   * @param delayMillis the delay in milliseconds
+   */
+  static void schedule( Runnable task, long delayMillis ) {
+    getExecutor().schedule( task, delayMillis, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Runs a refresh in the background. The task is run even if the refresher is cancelled before it starts, so it can
+   * clean up; it should check {@link #isCancelled()} before calling Drill.
+   *
+   * @param task the refresh
+   */
+  void submit( final Runnable task ) {
+    getExecutor().execute( new Runnable() {
+      @Override
+      public void run() {
+        Thread thread = Thread.currentThread();
+        synchronized ( DrillMetadataRefresher.this ) {
+          running.add( thread );
+        }
+        try {
+          task.run();
+        } finally {
+          synchronized ( DrillMetadataRefresher.this ) {
+            running.remove( thread );
+            // clear an interrupt from cancel, so it does not hit the next task of the thread
+            Thread.interrupted();
+          }
+        }
+      }
+    } );
+  }
+
+  /**
+   * @return true if the connection was closed and its refreshes are cancelled
+   */
+  synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Cancels the refreshes of the connection.
+   */
+  synchronized void cancel() {
+    cancelled = true;
+    for ( Thread thread : running ) {
+      thread.interrupt();
+    }
+  }
+}
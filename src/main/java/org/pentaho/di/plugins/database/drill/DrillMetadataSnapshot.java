@@ -0,0 +1,307 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DrillMetadataSnapshot reads and writes the snapshot files of the {@link DrillMetadataCache}. The file format is plain
+ * data: a header, then the cached results as their keys, column descriptions and rows, with every value written as a
+ * type tag followed by the value. Only strings, numbers, booleans and lists of them can be written, which is what
+ * metadata results and their keys hold; a result with any other value is left out of the snapshot. Reading creates no
+ * other objects than those, so a tampered file cannot make the plugin instantiate arbitrary classes.
+ */
+final class DrillMetadataSnapshot {
+
+  /**
+   * The version of the file format; snapshots written with another version are ignored
+   */
+  static final int VERSION = 3;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte SHORT = 4;
+  private static final byte BYTE = 5;
+  private static final byte BOOLEAN = 6;
+  private static final byte DOUBLE = 7;
+  private static final byte FLOAT = 8;
+  private static final byte BIG_DECIMAL = 9;
+  private static final byte LIST = 10;
+
+  private DrillMetadataSnapshot() {
+  }
+
+  /**
+   * Writes a snapshot, through a temporary file so a reader never sees half of it.
+   *
+   * @param file      the snapshot file
+   * @param digest    the digest of the cache key, to recognize the snapshot
+   * @param rowsByKey the cached results by key
+   * @throws IOException if the file cannot be written
+   */
+  static void write( File file, String digest, Map<List<Object>, DrillCachedResultSet.Rows> rowsByKey )
+    throws IOException {
+    File directory = file.getParentFile();
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Cannot create " + directory );
+    }
+    File temp = new File( directory, file.getName() + ".tmp" );
+    try {
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+      try {
+        out.writeInt( VERSION );
+        out.writeUTF( digest );
+        int count = 0;
+        for ( Map.Entry<List<Object>, DrillCachedResultSet.Rows> entry : rowsByKey.entrySet() ) {
+          if ( isWritable( entry.getKey(), entry.getValue() ) ) {
+            count++;
+          }
+        }
+        out.writeInt( count );
+        for ( Map.Entry<List<Object>, DrillCachedResultSet.Rows> entry : rowsByKey.entrySet() ) {
+          if ( isWritable( entry.getKey(), entry.getValue() ) ) {
+            writeValue( out, entry.getKey() );
+            writeRows( out, entry.getValue() );
+          }
+        }
+      } finally {
+        out.close();
+      }
+      if ( !temp.renameTo( file ) && !( file.delete() && temp.renameTo( file ) ) ) {
+        throw new IOException( "Cannot replace " + file );
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * Reads a snapshot. The file is read whole first, so the sizes in it can be checked against the bytes left.
+   *
+   * @param file   the snapshot file
+   * @param digest the digest of the cache key
+   * @return the cached results by key, or null if the snapshot has another version or belongs to another cache
+   * @throws IOException if the file cannot be read or is not a snapshot
+   */
+  @SuppressWarnings( "unchecked" )
+  static Map<List<Object>, DrillCachedResultSet.Rows> read( File file, String digest ) throws IOException {
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( readFile( file ) ) );
+    try {
+      if ( in.readInt() != VERSION || !digest.equals( in.readUTF() ) ) {
+        return null;
+      }
+      int count = readSize( in );
+      Map<List<Object>, DrillCachedResultSet.Rows> rowsByKey =
+        new LinkedHashMap<List<Object>, DrillCachedResultSet.Rows>();
+      for ( int i = 0; i < count; i++ ) {
+        Object key = readValue( in );
+        if ( !( key instanceof List ) ) {
+          throw new IOException( "Not a metadata snapshot: " + file );
+        }
+        rowsByKey.put( (List<Object>) key, readRows( in ) );
+      }
+      return rowsByKey;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] readFile( File file ) throws IOException {
+    InputStream in = new FileInputStream( file );
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( (int) Math.min( file.length(), Integer.MAX_VALUE ) );
+      byte[] buffer = new byte[8192];
+      for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) ) {
+        bytes.write( buffer, 0, n );
+      }
+      return bytes.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static boolean isWritable( List<Object> key, DrillCachedResultSet.Rows rows ) {
+    if ( !isWritable( key ) ) {
+      return false;
+    }
+    for ( Object[] row : rows.rows ) {
+      for ( Object value : row ) {
+        if ( !isWritable( value ) ) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWritable( Object value ) {
+    if ( value instanceof List ) {
+      for ( Object element : (List<?>) value ) {
+        if ( !isWritable( element ) ) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+      || value instanceof Short || value instanceof Byte || value instanceof Boolean || value instanceof Double
+      || value instanceof Float || value instanceof BigDecimal;
+  }
+
+  private static void writeRows( DataOutputStream out, DrillCachedResultSet.Rows rows ) throws IOException {
+    out.writeInt( rows.labels.length );
+    for ( int i = 0; i < rows.labels.length; i++ ) {
+      writeValue( out, rows.labels[i] );
+      out.writeInt( rows.types[i] );
+      writeValue( out, rows.typeNames[i] );
+    }
+    out.writeInt( rows.rows.size() );
+    for ( Object[] row : rows.rows ) {
+      for ( Object value : row ) {
+        writeValue( out, value );
+      }
+    }
+  }
+
+  private static DrillCachedResultSet.Rows readRows( DataInputStream in ) throws IOException {
+    int columns = readSize( in );
+    String[] labels = new String[columns];
+    int[] types = new int[columns];
+    String[] typeNames = new String[columns];
+    for ( int i = 0; i < columns; i++ ) {
+      labels[i] = readString( in );
+      types[i] = in.readInt();
+      typeNames[i] = readString( in );
+    }
+    int count = readSize( in );
+    List<Object[]> rows = new ArrayList<Object[]>( count );
+    for ( int i = 0; i < count; i++ ) {
+      Object[] row = new Object[columns];
+      for ( int j = 0; j < columns; j++ ) {
+        row[j] = readValue( in );
+      }
+      rows.add( row );
+    }
+    return new DrillCachedResultSet.Rows( labels, types, typeNames, rows );
+  }
+
+  private static void writeValue( DataOutputStream out, Object value ) throws IOException {
+    if ( value == null ) {
+      out.writeByte( NULL );
+    } else if ( value instanceof String ) {
+      out.writeByte( STRING );
+      byte[] bytes = ( (String) value ).getBytes( "UTF-8" );
+      out.writeInt( bytes.length );
+      out.write( bytes );
+    } else if ( value instanceof Integer ) {
+      out.writeByte( INTEGER );
+      out.writeInt( (Integer) value );
+    } else if ( value instanceof Long ) {
+      out.writeByte( LONG );
+      out.writeLong( (Long) value );
+    } else if ( value instanceof Short ) {
+      out.writeByte( SHORT );
+      out.writeShort( (Short) value );
+    } else if ( value instanceof Byte ) {
+      out.writeByte( BYTE );
+      out.writeByte( (Byte) value );
+    } else if ( value instanceof Boolean ) {
+      out.writeByte( BOOLEAN );
+      out.writeBoolean( (Boolean) value );
+    } else if ( value instanceof Double ) {
+      out.writeByte( DOUBLE );
+      out.writeDouble( (Double) value );
+    } else if ( value instanceof Float ) {
+      out.writeByte( FLOAT );
+      out.writeFloat( (Float) value );
+    } else if ( value instanceof BigDecimal ) {
+      out.writeByte( BIG_DECIMAL );
+      writeValue( out, value.toString() );
+    } else if ( value instanceof List ) {
+      List<?> list = (List<?>) value;
+      out.writeByte( LIST );
+      out.writeInt( list.size() );
+      for ( Object element : list ) {
+        writeValue( out, element );
+      }
+    } else {
+      throw new IOException( "Cannot write a " + value.getClass().getName() + " to a metadata snapshot" );
+    }
+  }
+
+  private static Object readValue( DataInputStream in ) throws IOException {
+    byte tag = in.readByte();
+    switch ( tag ) {
+      case NULL:
+        return null;
+      case STRING:
+        byte[] bytes = new byte[readSize( in )];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case SHORT:
+        return in.readShort();
+      case BYTE:
+        return in.readByte();
+      case BOOLEAN:
+        return in.readBoolean();
+      case DOUBLE:
+        return in.readDouble();
+      case FLOAT:
+        return in.readFloat();
+      case BIG_DECIMAL:
+        try {
+          return new BigDecimal( readString( in ) );
+        } catch ( NumberFormatException e ) {
+          throw new IOException( "Invalid number in metadata snapshot", e );
+        }
+      case LIST:
+        int size = readSize( in );
+        List<Object> list = new ArrayList<Object>( size );
+        for ( int i = 0; i < size; i++ ) {
+          list.add( readValue( in ) );
+        }
+        return list;
+      default:
+        throw new IOException( "Invalid type tag in metadata snapshot: " + tag );
+    }
+  }
+
+  private static String readString( DataInputStream in ) throws IOException {
+    Object value = readValue( in );
+    if ( value != null && !( value instanceof String ) ) {
+      throw new IOException( "Expected a string in metadata snapshot" );
+    }
+    return (String) value;
+  }
+
+  /**
+   * Reads the size of a string or list. Every character or element takes at least a byte, so a size larger than the
+   * rest of the file is corrupt, and is not allocated. The snapshot is read from memory, so all of the rest of the file
+   * is available.
+   */
+  private static int readSize( DataInputStream in ) throws IOException {
+    int size = in.readInt();
+    if ( size < 0 || size > in.available() ) {
+      throw new IOException( "Invalid size in metadata snapshot: " + size );
+    }
+    return size;
+  }
+}
@@ -0,0 +1,121 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * DrillPooledConnectionWrapper is the connection wrapper handed out in pooled mode. Closing it returns the Drill
+ * connection to its {@link DrillConnectionPool} instead of closing it, with the settings its borrower changed put back
+ * (see {@link DrillConnectionState}); aborting it, or closing it after a statement changed the Drill session or when a
+ * setting can't be put back, closes the Drill connection and removes it from the pool. Once closed, the wrapper throws
+ * from every method, as the Drill connection may already belong to another borrower.
+ */
+public class DrillPooledConnectionWrapper extends DrillConnectionWrapper {
+
+  /**
+   * The pool the Drill connection belongs to
+   */
+  protected final DrillConnectionPool pool;
+
+  /**
+   * Whether the connection has been closed logically
+   */
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  /**
+   * The settings changed by the borrower, to put back on close
+   */
+  private final DrillConnectionState state = new DrillConnectionState();
+
+  /**
+   * Instantiates a new pooled connection wrapper.
+   *
+   * @param connection   the Drill connection borrowed from the pool
+   * @param capabilities the capabilities of the Drill driver
+   * @param config       the plugin options of the connection
+   * @param pool         the pool the connection was borrowed from
+   */
+  public DrillPooledConnectionWrapper( Connection connection, DrillCapabilities capabilities,
+                                       DrillConnectionConfig config, DrillConnectionPool pool ) {
+    super( connection, capabilities, config );
+    this.pool = pool;
+  }
+
+  @Override
+  protected void checkOpen() throws SQLException {
+    if ( closed.get() ) {
+      throw new SQLException( "Connection is closed" );
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if ( closed.get() ) {
+      return;
+    }
+    // Put back while the wrapper is still open, through its own setters
+    boolean restored = state.restore( this );
+    if ( closed.compareAndSet( false, true ) ) {
+      closeCaches();
+      if ( isSessionChanged() || !restored ) {
+        // The next borrower must get the session options and settings of the configuration
+        pool.discard( connection );
+      } else {
+        pool.release( connection );
+      }
+    }
+  }
+
+  @Override
+  public void abort( Executor executor ) throws SQLException {
+    if ( closed.compareAndSet( false, true ) ) {
+      closeCaches();
+      pool.discard( connection );
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed.get() || connection.isClosed();
+  }
+
+  @Override
+  public boolean isValid( int timeout ) throws SQLException {
+    return !closed.get() && super.isValid( timeout );
+  }
+
+  @Override
+  protected void recordSchemaChange() {
+    // Not a change that makes the connection unfit for the pool, the schema and catalog are put back on close
+  }
+
+  @Override
+  public void setAutoCommit( boolean autoCommit ) throws SQLException {
+    checkOpen();
+    state.saveAutoCommit( this );
+    super.setAutoCommit( autoCommit );
+  }
+
+  @Override
+  public void setReadOnly( boolean readOnly ) throws SQLException {
+    checkOpen();
+    state.saveReadOnly( this );
+    super.setReadOnly( readOnly );
+  }
+
+  @Override
+  public void setCatalog( String catalog ) throws SQLException {
+    checkOpen();
+    state.saveCatalog( this );
+    super.setCatalog( catalog );
+  }
+
+  @Override
+  public void setSchema( String schema ) throws SQLException {
+    checkOpen();
+    state.saveSchema( this );
+    super.setSchema( schema );
+  }
+}
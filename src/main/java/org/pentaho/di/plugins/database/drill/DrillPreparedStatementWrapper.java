@@ -0,0 +1,547 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.plugins.database.drill.DrillCapabilities.Feature;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * DrillPreparedStatementWrapper is a delegating java.sql.PreparedStatement for Apache Drill prepared statements. It
+ * provides fallbacks for getMetaData, setObject and setNull, which older Drill drivers do not support.
+ * <p/>
+ * When the connection has a {@link DrillStatementCache}, closing the statement returns the Drill statement to the
+ * cache, and this wrapper stays closed: the connection hands out a new wrapper when it takes the statement out again.
+ */
+public class DrillPreparedStatementWrapper extends DrillStatementWrapper implements PreparedStatement {
+
+  /**
+   * The real Drill prepared statement
+   */
+  protected final PreparedStatement preparedStatement;
+
+  /**
+   * The SQL text of the statement, or null if it is not known
+   */
+  private final String sql;
+
+  /**
+   * The key of the statement in the statement cache of the connection, or null if it is not cached
+   */
+  private final List<Object> cacheKey;
+
+  /**
+   * Whether the statement has been closed; its Drill statement may have gone back to the statement cache
+   */
+  private volatile boolean closed;
+
+  /**
+   * Instantiates a new prepared statement wrapper.
+   *
+   * @param preparedStatement the Drill prepared statement to delegate to
+   * @param connection        the connection wrapper that created the statement
+   */
+  public DrillPreparedStatementWrapper( PreparedStatement preparedStatement, DrillConnectionWrapper connection ) {
+    this( preparedStatement, connection, null, null );
+  }
+
+  /**
+   * Instantiates a new prepared statement wrapper that goes back to the statement cache of the connection when it is
+   * closed.
+   *
+   * @param preparedStatement the Drill prepared statement to delegate to
+   * @param connection        the connection wrapper that created the statement
+   * @param sql               the SQL text of the statement, or null if it is not known
+   * @param cacheKey          the key of the statement in the statement cache, or null if it is not cached
+   */
+  DrillPreparedStatementWrapper( PreparedStatement preparedStatement, DrillConnectionWrapper connection, String sql,
+                                 List<Object> cacheKey ) {
+    super( preparedStatement, connection );
+    this.preparedStatement = preparedStatement;
+    this.sql = sql;
+    this.cacheKey = cacheKey;
+  }
+
+  /**
+   * Returns the metadata of the current result set. If a result set was not created by running an execute or
+   * executeQuery, the layout is read with a zero-row probe of the statement's query (see {@link DrillQueryLayout}),
+   * and if that is not possible either then a null is returned.
+   *
+   * @return the result set metadata, or null if there is no result set
+   */
+  protected ResultSetMetaData getResultSetMetaData() {
+    try {
+      ResultSet resultSet = preparedStatement.getResultSet();
+      if ( resultSet != null ) {
+        return resultSet.getMetaData();
+      }
+      return sql == null ? null : DrillQueryLayout.probe( preparedStatement.getConnection(), sql );
+    } catch ( SQLException se ) {
+      return null;
+    }
+  }
+
+  /**
+   * Sets a parameter using the setter matching the value's type, for drivers that don't support setObject.
+   *
+   * @param parameterIndex the parameter index
+   * @param x              the value
+   * @throws SQLException if the value type is not supported
+   */
+  protected void setObjectByType( int parameterIndex, Object x ) throws SQLException {
+    if ( x == null ) {
+      // PreparedStatement.setNull may not be supported
+      setNull( parameterIndex, Types.NULL );
+    } else if ( x instanceof String ) {
+      preparedStatement.setString( parameterIndex, (String) x );
+    } else if ( x instanceof Short ) {
+      preparedStatement.setShort( parameterIndex, ( (Short) x ).shortValue() );
+    } else if ( x instanceof Integer ) {
+      preparedStatement.setInt( parameterIndex, ( (Integer) x ).intValue() );
+    } else if ( x instanceof Long ) {
+      preparedStatement.setLong( parameterIndex, ( (Long) x ).longValue() );
+    } else if ( x instanceof Float ) {
+      preparedStatement.setFloat( parameterIndex, ( (Float) x ).floatValue() );
+    } else if ( x instanceof Double ) {
+      preparedStatement.setDouble( parameterIndex, ( (Double) x ).doubleValue() );
+    } else if ( x instanceof Boolean ) {
+      preparedStatement.setBoolean( parameterIndex, ( (Boolean) x ).booleanValue() );
+    } else if ( x instanceof Byte ) {
+      preparedStatement.setByte( parameterIndex, ( (Byte) x ).byteValue() );
+    } else if ( x instanceof Character ) {
+      preparedStatement.setString( parameterIndex, x.toString() );
+    } else {
+      // Can't infer a type.
+      throw new SQLException( "Type " + x.getClass() + " is not yet supported" );
+    }
+  }
+
+  @Override
+  protected void checkOpen() throws SQLException {
+    if ( closed ) {
+      throw new SQLException( "Statement is closed" );
+    }
+  }
+
+  /**
+   * Closes the statement, or returns its Drill statement to the statement cache of the connection (see
+   * {@link DrillStatementCache#release}).
+   *
+   * @throws SQLException if the statement cannot be closed
+   */
+  @Override
+  public void close() throws SQLException {
+    if ( closed ) {
+      return;
+    }
+    closed = true;
+    DrillStatementCache statementCache = connection.getStatementCache();
+    if ( cacheKey == null || statementCache == null || !statementCache.release( cacheKey, preparedStatement ) ) {
+      preparedStatement.close();
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed || preparedStatement.isClosed();
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    checkOpen();
+    preparedStatement.addBatch();
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    checkOpen();
+    preparedStatement.clearParameters();
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    checkOpen();
+    return preparedStatement.execute();
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    checkOpen();
+    return wrap( preparedStatement.executeQuery() );
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    checkOpen();
+    return preparedStatement.executeUpdate();
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    checkOpen();
+    DrillConnectionConfig config = connection.getConfig();
+    // A USE statement changes the current schema without the driver knowing, so the layouts are not cached then
+    DrillMetadataCache metadataCache =
+      sql == null || connection.isSessionChanged() ? null : DrillMetadataCache.forConfig( config );
+    String schema = metadataCache == null ? null : DrillMetadataCache.getSchema( connection );
+    ResultSetMetaData metaData = metadataCache == null ? null
+      : metadataCache.getLayout( sql, schema, config.getSessionOptions() );
+    if ( metaData != null ) {
+      return new DrillResultSetMetaDataWrapper( metaData, connection );
+    }
+    if ( !connection.getCapabilities().isSupported( Feature.PREPARED_STATEMENT_META_DATA ) ) {
+      metaData = getResultSetMetaData();
+    } else {
+      try {
+        metaData = preparedStatement.getMetaData();
+      } catch ( SQLException e ) {
+        if ( !connection.getCapabilities().recordFailure( Feature.PREPARED_STATEMENT_META_DATA, e ) ) {
+          throw e;
+        }
+        metaData = getResultSetMetaData();
+      }
+      if ( metaData == null || metaData.getColumnCount() == 0 ) {
+        // some drivers return no metadata or, like Drill before 1.8, a layout without columns instead of throwing
+        metaData = getResultSetMetaData();
+      }
+    }
+    if ( metaData != null && metadataCache != null ) {
+      metaData = metadataCache.putLayout( sql, schema, config.getSessionOptions(), metaData );
+    }
+    return metaData == null ? null : new DrillResultSetMetaDataWrapper( metaData, connection );
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    checkOpen();
+    return preparedStatement.getParameterMetaData();
+  }
+
+  @Override
+  public void setArray( int parameterIndex, Array x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setArray( parameterIndex, x );
+  }
+
+  @Override
+  public void setAsciiStream( int parameterIndex, InputStream x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setAsciiStream( parameterIndex, x );
+  }
+
+  @Override
+  public void setAsciiStream( int parameterIndex, InputStream x, int length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setAsciiStream( parameterIndex, x, length );
+  }
+
+  @Override
+  public void setAsciiStream( int parameterIndex, InputStream x, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setAsciiStream( parameterIndex, x, length );
+  }
+
+  @Override
+  public void setBigDecimal( int parameterIndex, BigDecimal x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBigDecimal( parameterIndex, x );
+  }
+
+  @Override
+  public void setBinaryStream( int parameterIndex, InputStream x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBinaryStream( parameterIndex, x );
+  }
+
+  @Override
+  public void setBinaryStream( int parameterIndex, InputStream x, int length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBinaryStream( parameterIndex, x, length );
+  }
+
+  @Override
+  public void setBinaryStream( int parameterIndex, InputStream x, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBinaryStream( parameterIndex, x, length );
+  }
+
+  @Override
+  public void setBlob( int parameterIndex, InputStream inputStream ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBlob( parameterIndex, inputStream );
+  }
+
+  @Override
+  public void setBlob( int parameterIndex, Blob x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBlob( parameterIndex, x );
+  }
+
+  @Override
+  public void setBlob( int parameterIndex, InputStream inputStream, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBlob( parameterIndex, inputStream, length );
+  }
+
+  @Override
+  public void setBoolean( int parameterIndex, boolean x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBoolean( parameterIndex, x );
+  }
+
+  @Override
+  public void setByte( int parameterIndex, byte x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setByte( parameterIndex, x );
+  }
+
+  @Override
+  public void setBytes( int parameterIndex, byte[] x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setBytes( parameterIndex, x );
+  }
+
+  @Override
+  public void setCharacterStream( int parameterIndex, Reader reader ) throws SQLException {
+    checkOpen();
+    preparedStatement.setCharacterStream( parameterIndex, reader );
+  }
+
+  @Override
+  public void setCharacterStream( int parameterIndex, Reader reader, int length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setCharacterStream( parameterIndex, reader, length );
+  }
+
+  @Override
+  public void setCharacterStream( int parameterIndex, Reader reader, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setCharacterStream( parameterIndex, reader, length );
+  }
+
+  @Override
+  public void setClob( int parameterIndex, Reader reader ) throws SQLException {
+    checkOpen();
+    preparedStatement.setClob( parameterIndex, reader );
+  }
+
+  @Override
+  public void setClob( int parameterIndex, Clob x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setClob( parameterIndex, x );
+  }
+
+  @Override
+  public void setClob( int parameterIndex, Reader reader, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setClob( parameterIndex, reader, length );
+  }
+
+  @Override
+  public void setDate( int parameterIndex, Date x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setDate( parameterIndex, x );
+  }
+
+  @Override
+  public void setDate( int parameterIndex, Date x, Calendar cal ) throws SQLException {
+    checkOpen();
+    preparedStatement.setDate( parameterIndex, x, cal );
+  }
+
+  @Override
+  public void setDouble( int parameterIndex, double x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setDouble( parameterIndex, x );
+  }
+
+  @Override
+  public void setFloat( int parameterIndex, float x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setFloat( parameterIndex, x );
+  }
+
+  @Override
+  public void setInt( int parameterIndex, int x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setInt( parameterIndex, x );
+  }
+
+  @Override
+  public void setLong( int parameterIndex, long x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setLong( parameterIndex, x );
+  }
+
+  @Override
+  public void setNCharacterStream( int parameterIndex, Reader reader ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNCharacterStream( parameterIndex, reader );
+  }
+
+  @Override
+  public void setNCharacterStream( int parameterIndex, Reader reader, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNCharacterStream( parameterIndex, reader, length );
+  }
+
+  @Override
+  public void setNClob( int parameterIndex, Reader reader ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNClob( parameterIndex, reader );
+  }
+
+  @Override
+  public void setNClob( int parameterIndex, NClob x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNClob( parameterIndex, x );
+  }
+
+  @Override
+  public void setNClob( int parameterIndex, Reader reader, long length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNClob( parameterIndex, reader, length );
+  }
+
+  @Override
+  public void setNString( int parameterIndex, String x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNString( parameterIndex, x );
+  }
+
+  @Override
+  public void setNull( int parameterIndex, int sqlType ) throws SQLException {
+    checkOpen();
+    if ( connection.getCapabilities().isSupported( Feature.SET_NULL ) ) {
+      try {
+        preparedStatement.setNull( parameterIndex, sqlType );
+        return;
+      } catch ( SQLException e ) {
+        if ( !connection.getCapabilities().recordFailure( Feature.SET_NULL, e ) ) {
+          throw e;
+        }
+      }
+    }
+    // Use empty String instead (not ideal, but won't crash)
+    preparedStatement.setString( parameterIndex, "" );
+  }
+
+  @Override
+  public void setNull( int parameterIndex, int sqlType, String typeName ) throws SQLException {
+    checkOpen();
+    preparedStatement.setNull( parameterIndex, sqlType, typeName );
+  }
+
+  @Override
+  public void setObject( int parameterIndex, Object x ) throws SQLException {
+    checkOpen();
+    if ( connection.getCapabilities().isSupported( Feature.SET_OBJECT ) ) {
+      try {
+        preparedStatement.setObject( parameterIndex, x );
+        return;
+      } catch ( SQLException e ) {
+        if ( !connection.getCapabilities().recordFailure( Feature.SET_OBJECT, e ) ) {
+          throw e;
+        }
+      }
+    }
+    setObjectByType( parameterIndex, x );
+  }
+
+  @Override
+  public void setObject( int parameterIndex, Object x, int targetSqlType ) throws SQLException {
+    checkOpen();
+    preparedStatement.setObject( parameterIndex, x, targetSqlType );
+  }
+
+  @Override
+  public void setObject( int parameterIndex, Object x, int targetSqlType, int scaleOrLength ) throws SQLException {
+    checkOpen();
+    preparedStatement.setObject( parameterIndex, x, targetSqlType, scaleOrLength );
+  }
+
+  @Override
+  public void setRef( int parameterIndex, Ref x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setRef( parameterIndex, x );
+  }
+
+  @Override
+  public void setRowId( int parameterIndex, RowId x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setRowId( parameterIndex, x );
+  }
+
+  @Override
+  public void setSQLXML( int parameterIndex, SQLXML x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setSQLXML( parameterIndex, x );
+  }
+
+  @Override
+  public void setShort( int parameterIndex, short x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setShort( parameterIndex, x );
+  }
+
+  @Override
+  public void setString( int parameterIndex, String x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setString( parameterIndex, x );
+  }
+
+  @Override
+  public void setTime( int parameterIndex, Time x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setTime( parameterIndex, x );
+  }
+
+  @Override
+  public void setTime( int parameterIndex, Time x, Calendar cal ) throws SQLException {
+    checkOpen();
+    preparedStatement.setTime( parameterIndex, x, cal );
+  }
+
+  @Override
+  public void setTimestamp( int parameterIndex, Timestamp x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setTimestamp( parameterIndex, x );
+  }
+
+  @Override
+  public void setTimestamp( int parameterIndex, Timestamp x, Calendar cal ) throws SQLException {
+    checkOpen();
+    preparedStatement.setTimestamp( parameterIndex, x, cal );
+  }
+
+  @Override
+  public void setURL( int parameterIndex, URL x ) throws SQLException {
+    checkOpen();
+    preparedStatement.setURL( parameterIndex, x );
+  }
+
+  @Override
+  public void setUnicodeStream( int parameterIndex, InputStream x, int length ) throws SQLException {
+    checkOpen();
+    preparedStatement.setUnicodeStream( parameterIndex, x, length );
+  }
+}
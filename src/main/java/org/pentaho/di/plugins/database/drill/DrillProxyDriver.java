@@ -1,5 +1,7 @@
 package org.pentaho.di.plugins.database.drill;
 
+import org.pentaho.di.core.logging.LogChannel;
+
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverPropertyInfo;
@@ -10,49 +12,128 @@ import java.util.logging.Logger;
 
 
 public class DrillProxyDriver implements Driver {
-  
-  static Driver driver;
-  
+
+  /**
+   * System property that switches connections back to the reflective {@link DriverProxyInvocationChain} instead of the
+   * delegating wrapper classes.
+   */
+  public static final String USE_PROXY_CHAIN_PROPERTY = "pdi.drill.useProxyChain";
+
   static {
     try {
-      java.sql.DriverManager.registerDriver(new DrillProxyDriver());
-      Driver newInstance = org.apache.drill.jdbc.Driver.class.newInstance();
-      driver = DriverProxyInvocationChain.getProxy( Driver.class, newInstance );
-      
-    } catch (Exception e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+      java.sql.DriverManager.registerDriver( new DrillProxyDriver() );
+    } catch ( SQLException e ) {
+      LogChannel.GENERAL.logError( "Could not register the Apache Drill JDBC driver", e );
+    }
+  }
+
+  /**
+   * Holds the real Drill driver. The Drill JDBC driver (and Netty, Calcite etc. with it) is only loaded when this class
+   * is first used, i.e. on the first connect to a Drill URL, not when Kettle loads the database plugins. The JVM makes
+   * the class initialization thread-safe.
+   */
+  private static class DriverHolder {
+
+    static final Driver driver;
+
+    static final Driver proxyDriver;
+
+    static final Exception loadException;
+
+    static {
+      Driver drillDriver = null;
+      Exception exception = null;
+      try {
+        drillDriver = org.apache.drill.jdbc.Driver.class.newInstance();
+      } catch ( Exception e ) {
+        exception = e;
+      }
+      driver = drillDriver;
+      proxyDriver = drillDriver == null ? null : DriverProxyInvocationChain.getProxy( Driver.class, drillDriver );
+      loadException = exception;
     }
   }
 
+  /**
+   * @return the real Drill driver, loading it on first use
+   * @throws SQLException if the Drill driver cannot be loaded
+   */
+  static Driver getDriver() throws SQLException {
+    if ( DriverHolder.driver == null ) {
+      throw new SQLException( "The Apache Drill JDBC driver could not be loaded", DriverHolder.loadException );
+    }
+    return DriverHolder.driver;
+  }
+
+  /**
+   * @return the real Drill driver behind the {@link DriverProxyInvocationChain}, loading it on first use
+   * @throws SQLException if the Drill driver cannot be loaded
+   */
+  static Driver getProxyDriver() throws SQLException {
+    getDriver();
+    return DriverHolder.proxyDriver;
+  }
+
   @Override
   public Connection connect( String url, Properties info ) throws SQLException {
-    return driver.connect( url, info );
+    if ( !acceptsURL( url ) ) {
+      // Not a Drill URL, don't load the Drill driver for it
+      return null;
+    }
+    if ( Boolean.getBoolean( USE_PROXY_CHAIN_PROPERTY ) ) {
+      return getProxyDriver().connect( url, info );
+    }
+    Driver driver = getDriver();
+    // Take the plugin options out of the URL and properties, Drill does not know them
+    DrillConnectionConfig config = DrillConnectionConfig.parse( url, info );
+    if ( config.isShared() ) {
+      Connection connection = DrillSharedConnection.acquire( driver, config );
+      if ( connection == null ) {
+        return null;
+      }
+      return new DrillSharedConnectionWrapper( connection, DrillCapabilities.forDriver( driver, connection ),
+        config );
+    }
+    if ( config.isPooled() ) {
+      DrillConnectionPool pool = DrillConnectionPool.forConfig( driver, config );
+      Connection connection = pool.borrow();
+      if ( connection == null ) {
+        return null;
+      }
+      return new DrillPooledConnectionWrapper( connection, DrillCapabilities.forDriver( driver, connection ), config,
+        pool );
+    }
+    Connection connection = DrillbitDiscovery.connect( driver, config );
+    if ( connection == null ) {
+      return null;
+    }
+    return new DrillConnectionWrapper( connection, DrillCapabilities.forDriver( driver, connection ), config );
   }
 
   @Override
   public boolean acceptsURL( String url ) throws SQLException {
-    return driver.acceptsURL( url );
+    // Answered here so unrelated connections never load the Drill driver or go through a proxy
+    return DrillConnectionConfig.isDrillUrl( url );
   }
 
   @Override
   public DriverPropertyInfo[] getPropertyInfo( String url, Properties info ) throws SQLException {
-    return driver.getPropertyInfo( url, info );
+    return getDriver().getPropertyInfo( url, info );
   }
 
   @Override
   public int getMajorVersion() {
-    return driver.getMajorVersion();
+    return DriverHolder.driver == null ? 0 : DriverHolder.driver.getMajorVersion();
   }
 
   @Override
   public int getMinorVersion() {
-    return driver.getMinorVersion();
+    return DriverHolder.driver == null ? 0 : DriverHolder.driver.getMinorVersion();
   }
 
   @Override
   public boolean jdbcCompliant() {
-    return driver.jdbcCompliant();
+    return DriverHolder.driver != null && DriverHolder.driver.jdbcCompliant();
   }
 
   public Logger getParentLogger() throws SQLFeatureNotSupportedException {
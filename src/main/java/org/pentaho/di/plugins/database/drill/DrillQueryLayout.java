@@ -0,0 +1,331 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.core.Const;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+/**
+ * DrillQueryLayout is the row layout of a query: a copy of its ResultSetMetaData that stays valid once the statement
+ * is closed. It is read with a zero-row probe, <code>SELECT * FROM ( query ) LIMIT 0</code>, which Drill plans but
+ * does not run, so learning the fields of a query on a directory of Parquet or JSON files does not scan it.
+ * <p/>
+ * The probe is the fallback of PreparedStatement.getMetaData for drivers that cannot describe a prepared statement;
+ * {@link DrillDatabaseMeta} builds the same kind of queries for the layout checks Kettle runs itself. When metadata is
+ * cached, the layouts of queries are kept in the {@link DrillMetadataCache} by {@link #normalize(String) normalized}
+ * SQL text.
+ */
+final class DrillQueryLayout implements ResultSetMetaData {
+
+  /**
+   * Queries that return rows and can be wrapped in a probe
+   */
+  private static final Pattern QUERY =
+    Pattern.compile( "^[\\s(]*(SELECT|WITH|VALUES)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL );
+
+  /**
+   * Trailing semicolons and white space, which can't be inside the probe's sub-query
+   */
+  private static final Pattern TRAILER = Pattern.compile( "[\\s;]+$" );
+
+  private final String[] catalogNames;
+  private final String[] schemaNames;
+  private final String[] tableNames;
+  private final String[] columnNames;
+  private final String[] columnLabels;
+  private final int[] columnTypes;
+  private final String[] columnTypeNames;
+  private final String[] columnClassNames;
+  private final int[] precisions;
+  private final int[] scales;
+  private final int[] displaySizes;
+  private final int[] nullables;
+  private final boolean[] signed;
+  private final boolean[] caseSensitive;
+  private final boolean[] searchable;
+  private final boolean[] currency;
+  private final boolean[] autoIncrement;
+  private final boolean[] readOnly;
+  private final boolean[] writable;
+  private final boolean[] definitelyWritable;
+
+  /**
+   * Copies the metadata of a result set.
+   *
+   * @param metaData the result set metadata
+   * @throws SQLException if the metadata cannot be read
+   */
+  DrillQueryLayout( ResultSetMetaData metaData ) throws SQLException {
+    int count = metaData.getColumnCount();
+    catalogNames = new String[count];
+    schemaNames = new String[count];
+    tableNames = new String[count];
+    columnNames = new String[count];
+    columnLabels = new String[count];
+    columnTypes = new int[count];
+    columnTypeNames = new String[count];
+    columnClassNames = new String[count];
+    precisions = new int[count];
+    scales = new int[count];
+    displaySizes = new int[count];
+    nullables = new int[count];
+    signed = new boolean[count];
+    caseSensitive = new boolean[count];
+    searchable = new boolean[count];
+    currency = new boolean[count];
+    autoIncrement = new boolean[count];
+    readOnly = new boolean[count];
+    writable = new boolean[count];
+    definitelyWritable = new boolean[count];
+    for ( int i = 0; i < count; i++ ) {
+      int column = i + 1;
+      catalogNames[i] = metaData.getCatalogName( column );
+      schemaNames[i] = metaData.getSchemaName( column );
+      tableNames[i] = metaData.getTableName( column );
+      columnNames[i] = metaData.getColumnName( column );
+      columnLabels[i] = metaData.getColumnLabel( column );
+      columnTypes[i] = metaData.getColumnType( column );
+      columnTypeNames[i] = metaData.getColumnTypeName( column );
+      columnClassNames[i] = metaData.getColumnClassName( column );
+      precisions[i] = metaData.getPrecision( column );
+      scales[i] = metaData.getScale( column );
+      displaySizes[i] = metaData.getColumnDisplaySize( column );
+      nullables[i] = metaData.isNullable( column );
+      try {
+        signed[i] = metaData.isSigned( column );
+      } catch ( SQLException e ) {
+        // older Drill drivers don't support isSigned
+        signed[i] = DrillResultSetColumns.isSignedType( columnTypes[i] );
+      }
+      caseSensitive[i] = metaData.isCaseSensitive( column );
+      searchable[i] = metaData.isSearchable( column );
+      currency[i] = metaData.isCurrency( column );
+      autoIncrement[i] = metaData.isAutoIncrement( column );
+      readOnly[i] = metaData.isReadOnly( column );
+      writable[i] = metaData.isWritable( column );
+      definitelyWritable[i] = metaData.isDefinitelyWritable( column );
+    }
+  }
+
+  /**
+   * @param sql the SQL text of a query
+   * @return true if the SQL is a query that can be wrapped in a probe
+   */
+  static boolean isQuery( String sql ) {
+    return sql != null && QUERY.matcher( sql ).matches();
+  }
+
+  /**
+   * Normalizes the SQL text of a query for the layout cache: comments are dropped, runs of white space outside quotes
+   * become a single space and trailing semicolons are removed. Case is kept, as quoted names and literals depend on
+   * it.
+   *
+   * @param sql the SQL text
+   * @return the normalized SQL text
+   */
+  static String normalize( String sql ) {
+    StringBuilder normalized = new StringBuilder( sql.length() );
+    char quote = 0;
+    boolean space = false;
+    for ( int i = 0; i < sql.length(); i++ ) {
+      char c = sql.charAt( i );
+      if ( quote != 0 ) {
+        normalized.append( c );
+        if ( c == quote ) {
+          quote = 0;
+        }
+        continue;
+      }
+      if ( c == '-' && sql.startsWith( "--", i ) ) {
+        int end = sql.indexOf( '\n', i );
+        i = end < 0 ? sql.length() : end;
+        space = true;
+        continue;
+      }
+      if ( c == '/' && sql.startsWith( "/*", i ) ) {
+        int end = sql.indexOf( "*/", i + 2 );
+        i = end < 0 ? sql.length() : end + 1;
+        space = true;
+        continue;
+      }
+      if ( Character.isWhitespace( c ) ) {
+        space = true;
+        continue;
+      }
+      if ( c == '\'' || c == '"' || c == '`' ) {
+        quote = c;
+      }
+      if ( space && normalized.length() > 0 ) {
+        normalized.append( ' ' );
+      }
+      space = false;
+      normalized.append( c );
+    }
+    return TRAILER.matcher( normalized ).replaceFirst( "" );
+  }
+
+  /**
+   * Builds the zero-row probe of a query. The query goes on lines of its own, so a trailing line comment does not
+   * swallow the end of the probe.
+   *
+   * @param sql the SQL text of the query
+   * @return the probe
+   */
+  static String getProbeSql( String sql ) {
+    return "SELECT * FROM (" + Const.CR + TRAILER.matcher( sql ).replaceFirst( "" ) + Const.CR + ") LIMIT 0";
+  }
+
+  /**
+   * Reads the layout of a query with a zero-row probe.
+   *
+   * @param connection the Drill connection
+   * @param sql        the SQL text of the query
+   * @return the layout, or null if the SQL is not a query
+   * @throws SQLException if Drill cannot plan the probe
+   */
+  static DrillQueryLayout probe( Connection connection, String sql ) throws SQLException {
+    if ( !isQuery( sql ) ) {
+      return null;
+    }
+    Statement statement = connection.createStatement();
+    try {
+      ResultSet resultSet = statement.executeQuery( getProbeSql( sql ) );
+      try {
+        return new DrillQueryLayout( resultSet.getMetaData() );
+      } finally {
+        resultSet.close();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  private int index( int column ) throws SQLException {
+    if ( column < 1 || column > columnLabels.length ) {
+      throw new SQLException( "Invalid column index " + column );
+    }
+    return column - 1;
+  }
+
+  @Override
+  public int getColumnCount() throws SQLException {
+    return columnLabels.length;
+  }
+
+  @Override
+  public boolean isAutoIncrement( int column ) throws SQLException {
+    return autoIncrement[index( column )];
+  }
+
+  @Override
+  public boolean isCaseSensitive( int column ) throws SQLException {
+    return caseSensitive[index( column )];
+  }
+
+  @Override
+  public boolean isSearchable( int column ) throws SQLException {
+    return searchable[index( column )];
+  }
+
+  @Override
+  public boolean isCurrency( int column ) throws SQLException {
+    return currency[index( column )];
+  }
+
+  @Override
+  public int isNullable( int column ) throws SQLException {
+    return nullables[index( column )];
+  }
+
+  @Override
+  public boolean isSigned( int column ) throws SQLException {
+    return signed[index( column )];
+  }
+
+  @Override
+  public int getColumnDisplaySize( int column ) throws SQLException {
+    return displaySizes[index( column )];
+  }
+
+  @Override
+  public String getColumnLabel( int column ) throws SQLException {
+    return columnLabels[index( column )];
+  }
+
+  @Override
+  public String getColumnName( int column ) throws SQLException {
+    return columnNames[index( column )];
+  }
+
+  @Override
+  public String getSchemaName( int column ) throws SQLException {
+    return schemaNames[index( column )];
+  }
+
+  @Override
+  public int getPrecision( int column ) throws SQLException {
+    return precisions[index( column )];
+  }
+
+  @Override
+  public int getScale( int column ) throws SQLException {
+    return scales[index( column )];
+  }
+
+  @Override
+  public String getTableName( int column ) throws SQLException {
+    return tableNames[index( column )];
+  }
+
+  @Override
+  public String getCatalogName( int column ) throws SQLException {
+    return catalogNames[index( column )];
+  }
+
+  @Override
+  public int getColumnType( int column ) throws SQLException {
+    return columnTypes[index( column )];
+  }
+
+  @Override
+  public String getColumnTypeName( int column ) throws SQLException {
+    return columnTypeNames[index( column )];
+  }
+
+  @Override
+  public boolean isReadOnly( int column ) throws SQLException {
+    return readOnly[index( column )];
+  }
+
+  @Override
+  public boolean isWritable( int column ) throws SQLException {
+    return writable[index( column )];
+  }
+
+  @Override
+  public boolean isDefinitelyWritable( int column ) throws SQLException {
+    return definitelyWritable[index( column )];
+  }
+
+  @Override
+  public String getColumnClassName( int column ) throws SQLException {
+    return columnClassNames[index( column )];
+  }
+
+  @Override
+  public <T> T unwrap( Class<T> iface ) throws SQLException {
+    if ( iface.isInstance( this ) ) {
+      return iface.cast( this );
+    }
+    throw new SQLException( "Not a wrapper for " + iface.getName() );
+  }
+
+  @Override
+  public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+    return iface.isInstance( this );
+  }
+}
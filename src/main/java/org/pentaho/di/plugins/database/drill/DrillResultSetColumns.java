@@ -0,0 +1,267 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.plugins.database.drill.DrillCapabilities.Feature;
+import org.pentaho.di.plugins.database.drill.DrillConnectionConfig.ColumnNaming;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * DrillResultSetColumns holds the column information of a Drill result set that Kettle asks for over and over: the
+ * names and labels (with or without their table qualifier, see {@link ColumnNaming}), the SQL types and whether the
+ * columns are signed. It is computed once per result set, so repeated metadata calls just read from these arrays;
+ * whether a column is signed is only asked from Drill when it is first needed. The arrays are indexed by JDBC column
+ * index, element 0 is unused.
+ * <p/>
+ * For every column it also keeps a coercion plan: whether getBoolean and getLong are read through getInt, because
+ * Drill rejects the conversion for that column type. The plan starts from the column types and learns from the first
+ * rejected conversion, so the hot loop never pays for the exception more than once per column.
+ * <p/>
+ * It also resolves column labels to column indexes, so the getXxx(String) accessors of the result set don't have to
+ * search the columns (or rely on Drill's own lookup) for every row.
+ */
+final class DrillResultSetColumns {
+
+  /**
+   * The number of columns
+   */
+  final int count;
+
+  /**
+   * The column names, as reported to Kettle
+   */
+  final String[] names;
+
+  /**
+   * The column labels, as reported to Kettle
+   */
+  final String[] labels;
+
+  /**
+   * The java.sql.Types of the columns
+   */
+  final int[] types;
+
+  /**
+   * Whether the columns are signed, valid where {@link #signedKnown} is set
+   */
+  private final boolean[] signed;
+
+  /**
+   * Whether it is known if the columns are signed
+   */
+  private final boolean[] signedKnown;
+
+  /**
+   * The Drill result set metadata, asked whether a column is signed
+   */
+  private final ResultSetMetaData rsmd;
+
+  /**
+   * The capabilities of the Drill driver
+   */
+  private final DrillCapabilities capabilities;
+
+  /**
+   * Whether getBoolean reads the column through getInt
+   */
+  final boolean[] booleanFromInt;
+
+  /**
+   * Whether getLong reads the column through getInt
+   */
+  final boolean[] longFromInt;
+
+  /**
+   * The column labels as reported by Drill, possibly qualified
+   */
+  private final String[] driverLabels;
+
+  /**
+   * The column indexes by exact label and by lower case label, built the first time a label is looked up
+   */
+  private Map<String, Integer> indexByLabel;
+  private Map<String, Integer> indexByLowerCaseLabel;
+
+  /**
+   * Reads the column information from the Drill result set metadata.
+   *
+   * @param rsmd         the Drill result set metadata
+   * @param capabilities the capabilities of the Drill driver
+   * @param naming       how column names and labels are reported
+   * @throws SQLException if the metadata cannot be read
+   */
+  DrillResultSetColumns( ResultSetMetaData rsmd, DrillCapabilities capabilities, ColumnNaming naming )
+    throws SQLException {
+    this.rsmd = rsmd;
+    this.capabilities = capabilities;
+    count = rsmd.getColumnCount();
+    names = new String[count + 1];
+    labels = new String[count + 1];
+    types = new int[count + 1];
+    signed = new boolean[count + 1];
+    signedKnown = new boolean[count + 1];
+    driverLabels = new String[count + 1];
+    booleanFromInt = new boolean[count + 1];
+    longFromInt = new boolean[count + 1];
+    for ( int i = 1; i <= count; i++ ) {
+      driverLabels[i] = rsmd.getColumnLabel( i );
+      String name = rsmd.getColumnName( i );
+      switch ( naming ) {
+        case KEEP:
+          names[i] = name;
+          labels[i] = driverLabels[i];
+          break;
+        case ALIAS_ONLY:
+          names[i] = name;
+          labels[i] = stripQualifier( driverLabels[i] );
+          break;
+        default:
+          names[i] = stripQualifier( name );
+          labels[i] = names[i];
+          break;
+      }
+      types[i] = rsmd.getColumnType( i );
+      booleanFromInt[i] = isIntType( types[i] );
+      longFromInt[i] = booleanFromInt[i];
+    }
+  }
+
+  /**
+   * @param column the JDBC column index
+   * @return true if the index refers to a column of the result set
+   */
+  boolean isValid( int column ) {
+    return column >= 1 && column <= count;
+  }
+
+  /**
+   * Returns the index of the column with the specified label. An exact match is preferred; otherwise the label is
+   * matched ignoring case, as JDBC requires. Both the unqualified labels and the labels as reported by Drill are
+   * recognized, and the first column wins if several have the same label.
+   *
+   * @param label the column label
+   * @return the JDBC column index, or 0 if no column has the label
+   */
+  int indexOf( String label ) {
+    if ( label == null ) {
+      return 0;
+    }
+    if ( indexByLabel == null ) {
+      buildLabelIndex();
+    }
+    Integer index = indexByLabel.get( label );
+    if ( index == null ) {
+      index = indexByLowerCaseLabel.get( label.toLowerCase( Locale.ROOT ) );
+    }
+    return index == null ? 0 : index;
+  }
+
+  private void buildLabelIndex() {
+    Map<String, Integer> exact = new HashMap<String, Integer>( count * 4 );
+    Map<String, Integer> lowerCase = new HashMap<String, Integer>( count * 4 );
+    for ( String[] columnLabels : new String[][] { labels, driverLabels } ) {
+      for ( int i = 1; i <= count; i++ ) {
+        String label = columnLabels[i];
+        if ( label != null ) {
+          addLabel( exact, label, i );
+          addLabel( lowerCase, label.toLowerCase( Locale.ROOT ), i );
+        }
+      }
+    }
+    indexByLowerCaseLabel = lowerCase;
+    indexByLabel = exact;
+  }
+
+  private static void addLabel( Map<String, Integer> index, String label, int column ) {
+    if ( !index.containsKey( label ) ) {
+      index.put( label, column );
+    }
+  }
+
+  /**
+   * Returns whether a column is signed, asking Drill the first time if the driver implements it and deriving it from
+   * the column type otherwise.
+   *
+   * @param column the JDBC column index, which must be valid
+   * @return true if the values of the column are signed
+   * @throws SQLException if the metadata cannot be read
+   */
+  boolean isSigned( int column ) throws SQLException {
+    if ( !signedKnown[column] ) {
+      signed[column] = readSigned( column );
+      signedKnown[column] = true;
+    }
+    return signed[column];
+  }
+
+  private boolean readSigned( int column ) throws SQLException {
+    if ( capabilities.isSupported( Feature.IS_SIGNED ) ) {
+      try {
+        return rsmd.isSigned( column );
+      } catch ( SQLException e ) {
+        if ( !capabilities.recordFailure( Feature.IS_SIGNED, e ) ) {
+          throw e;
+        }
+      }
+    }
+    return isSignedType( types[column] );
+  }
+
+  /**
+   * Removes the table qualifier (everything up to and including the first dot) from a column name.
+   *
+   * @param columnName the column name, may be null
+   * @return the unqualified column name
+   */
+  static String stripQualifier( String columnName ) {
+    if ( columnName != null ) {
+      int dotIndex = columnName.indexOf( '.' );
+      if ( dotIndex != -1 ) {
+        return columnName.substring( dotIndex + 1 );
+      }
+    }
+    return columnName;
+  }
+
+  /**
+   * Returns true if values of the type are integers that getInt can read.
+   *
+   * @param type the java.sql.Types of the column
+   * @return boolean
+   */
+  static boolean isIntType( int type ) {
+    switch ( type ) {
+      case Types.INTEGER:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns a true if values of the type are signed, false if not. Numeric types are signed, all others are not.
+   *
+   * @param type the java.sql.Types of the column
+   * @return boolean
+   */
+  static boolean isSignedType( int type ) {
+    switch ( type ) {
+      case Types.DOUBLE:
+      case Types.DECIMAL:
+      case Types.FLOAT:
+      case Types.INTEGER:
+      case Types.REAL:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+      case Types.BIGINT:
+        return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,170 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * DrillResultSetMetaDataWrapper is a delegating java.sql.ResultSetMetaData for Apache Drill result sets. Whether column
+ * names and labels are reported with or without their table qualifier follows the
+ * {@link DrillConnectionConfig#OPTION_COLUMN_NAMES columnNames} option of the connection: <code>strip</code> (the
+ * default) removes it from both, <code>keep</code> reports them as Drill does and <code>aliasOnly</code> removes it
+ * from labels only. isSigned is derived from the column type when the driver does not support it. The column count,
+ * names, labels, types and signedness are read once when the wrapper is created.
+ */
+public class DrillResultSetMetaDataWrapper implements ResultSetMetaData {
+
+  /**
+   * The real Drill result set metadata
+   */
+  protected final ResultSetMetaData metaData;
+
+  /**
+   * The connection wrapper the metadata belongs to
+   */
+  protected final DrillConnectionWrapper connection;
+
+  /**
+   * The precomputed column information
+   */
+  private final DrillResultSetColumns columns;
+
+  /**
+   * Instantiates a new result set metadata wrapper.
+   *
+   * @param metaData   the Drill result set metadata to delegate to
+   * @param connection the connection wrapper the metadata belongs to
+   * @throws SQLException if the column information cannot be read
+   */
+  public DrillResultSetMetaDataWrapper( ResultSetMetaData metaData, DrillConnectionWrapper connection )
+    throws SQLException {
+    this.metaData = metaData;
+    this.connection = connection;
+    this.columns = new DrillResultSetColumns( metaData, connection.getCapabilities(),
+      connection.getConfig().getColumnNaming() );
+  }
+
+  @Override
+  public String getCatalogName( int columnIndex ) throws SQLException {
+    return metaData.getCatalogName( columnIndex );
+  }
+
+  @Override
+  public String getColumnClassName( int columnIndex ) throws SQLException {
+    return metaData.getColumnClassName( columnIndex );
+  }
+
+  /**
+   * @return the precomputed column information
+   */
+  DrillResultSetColumns getColumns() {
+    return columns;
+  }
+
+  @Override
+  public int getColumnCount() throws SQLException {
+    return columns.count;
+  }
+
+  @Override
+  public int getColumnDisplaySize( int columnIndex ) throws SQLException {
+    return metaData.getColumnDisplaySize( columnIndex );
+  }
+
+  @Override
+  public String getColumnLabel( int columnIndex ) throws SQLException {
+    return columns.isValid( columnIndex ) ? columns.labels[columnIndex] : metaData.getColumnLabel( columnIndex );
+  }
+
+  @Override
+  public String getColumnName( int columnIndex ) throws SQLException {
+    return columns.isValid( columnIndex ) ? columns.names[columnIndex] : metaData.getColumnName( columnIndex );
+  }
+
+  @Override
+  public int getColumnType( int columnIndex ) throws SQLException {
+    return columns.isValid( columnIndex ) ? columns.types[columnIndex] : metaData.getColumnType( columnIndex );
+  }
+
+  @Override
+  public String getColumnTypeName( int columnIndex ) throws SQLException {
+    return metaData.getColumnTypeName( columnIndex );
+  }
+
+  @Override
+  public int getPrecision( int columnIndex ) throws SQLException {
+    return metaData.getPrecision( columnIndex );
+  }
+
+  @Override
+  public int getScale( int columnIndex ) throws SQLException {
+    return metaData.getScale( columnIndex );
+  }
+
+  @Override
+  public String getSchemaName( int columnIndex ) throws SQLException {
+    return metaData.getSchemaName( columnIndex );
+  }
+
+  @Override
+  public String getTableName( int columnIndex ) throws SQLException {
+    return metaData.getTableName( columnIndex );
+  }
+
+  @Override
+  public boolean isAutoIncrement( int columnIndex ) throws SQLException {
+    return metaData.isAutoIncrement( columnIndex );
+  }
+
+  @Override
+  public boolean isCaseSensitive( int columnIndex ) throws SQLException {
+    return metaData.isCaseSensitive( columnIndex );
+  }
+
+  @Override
+  public boolean isCurrency( int columnIndex ) throws SQLException {
+    return metaData.isCurrency( columnIndex );
+  }
+
+  @Override
+  public boolean isDefinitelyWritable( int columnIndex ) throws SQLException {
+    return metaData.isDefinitelyWritable( columnIndex );
+  }
+
+  @Override
+  public int isNullable( int columnIndex ) throws SQLException {
+    return metaData.isNullable( columnIndex );
+  }
+
+  @Override
+  public boolean isReadOnly( int columnIndex ) throws SQLException {
+    return metaData.isReadOnly( columnIndex );
+  }
+
+  @Override
+  public boolean isSearchable( int columnIndex ) throws SQLException {
+    return metaData.isSearchable( columnIndex );
+  }
+
+  @Override
+  public boolean isSigned( int columnIndex ) throws SQLException {
+    if ( !columns.isValid( columnIndex ) ) {
+      throw new SQLException( "Invalid column value: " + columnIndex );
+    }
+    return columns.isSigned( columnIndex );
+  }
+
+  @Override
+  public boolean isWritable( int columnIndex ) throws SQLException {
+    return metaData.isWritable( columnIndex );
+  }
+
+  @Override
+  public <T> T unwrap( Class<T> iface ) throws SQLException {
+    return DrillWrappers.unwrap( this, metaData, iface );
+  }
+
+  @Override
+  public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+    return DrillWrappers.isWrapperFor( this, metaData, iface );
+  }
+}
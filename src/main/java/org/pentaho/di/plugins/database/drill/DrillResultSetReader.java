@@ -0,0 +1,117 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+
+/**
+ * DrillResultSetReader is the {@link DrillColumnReader} of a Drill result set. It follows the coercion plan in
+ * {@link DrillResultSetColumns}: getBoolean and getLong go through getInt for the columns where Drill rejects the
+ * conversion, and the first rejected conversion of any other column is remembered so it is not paid again.
+ */
+final class DrillResultSetReader implements DrillColumnReader {
+
+  /**
+   * The real Drill result set
+   */
+  private final ResultSet resultSet;
+
+  /**
+   * The column information of the result set
+   */
+  private final DrillResultSetColumns columns;
+
+  /**
+   * Instantiates a new reader.
+   *
+   * @param resultSet the Drill result set to read from
+   * @param columns   the column information of the result set
+   */
+  DrillResultSetReader( ResultSet resultSet, DrillResultSetColumns columns ) {
+    this.resultSet = resultSet;
+    this.columns = columns;
+  }
+
+  @Override
+  public long readLong( int column ) throws SQLException {
+    boolean valid = columns.isValid( column );
+    if ( valid && columns.longFromInt[column] ) {
+      return resultSet.getInt( column );
+    }
+    try {
+      return resultSet.getLong( column );
+    } catch ( SQLException e ) {
+      // This is a Drill exception but we can't currently access the exception class, so just check the message.
+      if ( DrillSqlExceptions.isUnsupportedConversion( e ) ) {
+        if ( valid ) {
+          columns.longFromInt[column] = true;
+        }
+        return resultSet.getInt( column );
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public int readInt( int column ) throws SQLException {
+    return resultSet.getInt( column );
+  }
+
+  @Override
+  public double readDouble( int column ) throws SQLException {
+    return resultSet.getDouble( column );
+  }
+
+  @Override
+  public boolean readBoolean( int column ) throws SQLException {
+    boolean valid = columns.isValid( column );
+    if ( valid && columns.booleanFromInt[column] ) {
+      return resultSet.getInt( column ) != 0;
+    }
+    try {
+      return resultSet.getBoolean( column );
+    } catch ( SQLException e ) {
+      if ( DrillSqlExceptions.isUnsupportedConversion( e ) ) {
+        if ( valid ) {
+          columns.booleanFromInt[column] = true;
+        }
+        return resultSet.getInt( column ) != 0;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean isNull( int column ) throws SQLException {
+    // JDBC only tells nulls apart after a read, so read the column with the primitive getter of its type; any other
+    // getter would allocate the value just to drop it
+    int type = columns.isValid( column ) ? columns.types[column] : Types.OTHER;
+    switch ( type ) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        readLong( column );
+        break;
+      case Types.FLOAT:
+      case Types.REAL:
+      case Types.DOUBLE:
+        resultSet.getDouble( column );
+        break;
+      case Types.BOOLEAN:
+      case Types.BIT:
+        readBoolean( column );
+        break;
+      default:
+        throw new SQLFeatureNotSupportedException(
+          "isNull is only supported for integer, floating point and boolean columns; read the value and call wasNull" );
+    }
+    return resultSet.wasNull();
+  }
+
+  @Override
+  public boolean wasNull() throws SQLException {
+    return resultSet.wasNull();
+  }
+}
@@ -0,0 +1,116 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * DrillSessionOptions sets the Drill session options of a connection configuration, such as
+ * <code>planner.width.max_per_node</code> or <code>store.format</code>, with <code>ALTER SESSION</code> statements. It
+ * is called by {@link DrillbitDiscovery} for every new Drill connection, so the options are set once per physical
+ * connection and not again when a pooled connection is reused.
+ * <p/>
+ * A job can change the session itself, with <code>ALTER SESSION</code>, <code>SET</code>, <code>RESET</code> or
+ * <code>USE</code>, or with Connection.setSchema and setCatalog, which Drill turns into a <code>USE</code>. The
+ * connection wrappers notice such statements (see {@link #changesSession(String)}) and calls, and a pooled connection
+ * whose session was changed by a statement is closed instead of being returned to the pool, so the change does not
+ * leak to the next job. The schema and catalog of a pooled connection are put back instead (see
+ * {@link DrillConnectionState}).
+ */
+final class DrillSessionOptions {
+
+  /**
+   * Values that are sent to Drill as they are: numbers, booleans and quoted strings
+   */
+  private static final Pattern LITERAL =
+    Pattern.compile( "-?\\d+(\\.\\d+)?|true|false|'.*'", Pattern.CASE_INSENSITIVE );
+
+  private DrillSessionOptions() {
+  }
+
+  /**
+   * Sets the session options of a new connection.
+   *
+   * @param connection the Drill connection
+   * @param options    the session options, by option name
+   * @throws SQLException if Drill refuses an option
+   */
+  static void apply( Connection connection, Map<String, String> options ) throws SQLException {
+    if ( options.isEmpty() ) {
+      return;
+    }
+    Statement statement = connection.createStatement();
+    try {
+      for ( Map.Entry<String, String> option : options.entrySet() ) {
+        statement.execute( getAlterSessionSql( option.getKey(), option.getValue() ) );
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * Tells whether a statement changes the state of the Drill session: its options or its default schema. Only the
+   * leading keywords are looked at, as this runs for every statement executed or prepared.
+   *
+   * @param sql the SQL text of the statement
+   * @return true for ALTER SESSION, SET, RESET and USE statements
+   */
+  static boolean changesSession( String sql ) {
+    if ( sql == null ) {
+      return false;
+    }
+    int start = skipSpace( sql, 0 );
+    if ( isKeyword( sql, start, "ALTER" ) ) {
+      return isKeyword( sql, skipSpace( sql, start + "ALTER".length() ), "SESSION" );
+    }
+    return isKeyword( sql, start, "SET" ) || isKeyword( sql, start, "RESET" ) || isKeyword( sql, start, "USE" );
+  }
+
+  /**
+   * @return the index of the first character from start on that is not white space, an opening parenthesis or in a
+   * comment
+   */
+  private static int skipSpace( String sql, int start ) {
+    int i = start;
+    while ( i < sql.length() ) {
+      char c = sql.charAt( i );
+      if ( Character.isWhitespace( c ) || c == '(' ) {
+        i++;
+      } else if ( sql.startsWith( "--", i ) ) {
+        int end = sql.indexOf( '\n', i );
+        i = end < 0 ? sql.length() : end + 1;
+      } else if ( sql.startsWith( "/*", i ) ) {
+        int end = sql.indexOf( "*/", i + 2 );
+        i = end < 0 ? sql.length() : end + 2;
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * @return true if the keyword, in any case, is at start and is a whole word
+   */
+  private static boolean isKeyword( String sql, int start, String keyword ) {
+    int end = start + keyword.length();
+    return sql.regionMatches( true, start, keyword, 0, keyword.length() )
+      && ( end == sql.length() || !Character.isLetterOrDigit( sql.charAt( end ) ) && sql.charAt( end ) != '_' );
+  }
+
+  /**
+   * Builds the statement that sets a session option. Values that are not numbers, booleans or quoted already are
+   * quoted as strings.
+   *
+   * @param name  the option name
+   * @param value the option value
+   * @return the ALTER SESSION statement
+   */
+  static String getAlterSessionSql( String name, String value ) {
+    String literal = LITERAL.matcher( value ).matches() ? value : "'" + value.replace( "'", "''" ) + "'";
+    return "ALTER SESSION SET `" + name.replace( "`", "" ) + "` = " + literal;
+  }
+}
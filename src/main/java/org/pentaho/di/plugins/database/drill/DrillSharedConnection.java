@@ -0,0 +1,147 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * DrillSharedConnection lets the logical connections of one configuration share a single Drill connection. It is used
+ * when the <code>shared</code> option is set (see {@link DrillConnectionConfig}), typically for steps running with many
+ * copies: the Drill client runs the queries of the copies concurrently on one RPC channel, instead of every copy having
+ * its own channel, threads and direct memory.
+ * <p/>
+ * The Drill connection is reference counted: it is opened for the first logical connection and closed when the last
+ * one is closed. If it was closed or lost in the meantime, the next logical connection gets a new one. As everything
+ * runs on one Drill session, settings changed on one logical connection, such as the schema, apply to all of them.
+ */
+public final class DrillSharedConnection {
+
+  /**
+   * The open shared connections by configuration key
+   */
+  private static final Map<List<Object>, DrillSharedConnection> sharedByKey =
+    new HashMap<List<Object>, DrillSharedConnection>();
+
+  /**
+   * The shared connections by Drill connection
+   */
+  private static final Map<Connection, DrillSharedConnection> sharedByConnection =
+    new IdentityHashMap<Connection, DrillSharedConnection>();
+
+  /**
+   * The locks held while the Drill connection of a configuration key is opened
+   */
+  private static final ConcurrentMap<List<Object>, Object> openLocks = new ConcurrentHashMap<List<Object>, Object>();
+
+  private final List<Object> key;
+
+  private final Connection connection;
+
+  /**
+   * The number of logical connections using the Drill connection
+   */
+  private int references;
+
+  private DrillSharedConnection( List<Object> key, Connection connection ) {
+    this.key = key;
+    this.connection = connection;
+  }
+
+  /**
+   * Returns the shared Drill connection of a configuration, opening it if needed, and counts one more user.
+   *
+   * @param driver the Drill driver that opens the connection
+   * @param config the connection configuration
+   * @return the Drill connection, or null if the driver does not accept the URL
+   * @throws SQLException if a new connection cannot be opened
+   */
+  public static Connection acquire( Driver driver, DrillConnectionConfig config ) throws SQLException {
+    List<Object> key = config.getKey();
+    Connection connection = reference( key );
+    if ( connection != null ) {
+      return connection;
+    }
+    Object lock = openLocks.get( key );
+    if ( lock == null ) {
+      Object newLock = new Object();
+      lock = openLocks.putIfAbsent( key, newLock );
+      if ( lock == null ) {
+        lock = newLock;
+      }
+    }
+    // Opened while holding the lock of the key only, so the copies starting together don't each open a connection,
+    // and a slow or unreachable cluster does not hold up the connections to other URLs
+    synchronized ( lock ) {
+      connection = reference( key );
+      if ( connection != null ) {
+        return connection;
+      }
+      connection = DrillbitDiscovery.connect( driver, config );
+      if ( connection == null ) {
+        return null;
+      }
+      synchronized ( sharedByKey ) {
+        DrillSharedConnection shared = new DrillSharedConnection( key, connection );
+        shared.references = 1;
+        sharedByKey.put( key, shared );
+        sharedByConnection.put( connection, shared );
+      }
+      return connection;
+    }
+  }
+
+  /**
+   * Counts one more user of the open shared Drill connection of a key.
+   *
+   * @param key the configuration key
+   * @return the Drill connection, or null if there is no open one
+   */
+  private static Connection reference( List<Object> key ) {
+    synchronized ( sharedByKey ) {
+      DrillSharedConnection shared = sharedByKey.get( key );
+      if ( shared != null && !isClosed( shared.connection ) ) {
+        shared.references++;
+        return shared.connection;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Counts one user less of a shared Drill connection, and closes it when it was the last one.
+   *
+   * @param connection the Drill connection
+   * @throws SQLException if the connection cannot be closed
+   */
+  public static void release( Connection connection ) throws SQLException {
+    synchronized ( sharedByKey ) {
+      DrillSharedConnection shared = sharedByConnection.get( connection );
+      if ( shared == null || --shared.references > 0 ) {
+        return;
+      }
+      sharedByConnection.remove( connection );
+      if ( sharedByKey.get( shared.key ) == shared ) {
+        sharedByKey.remove( shared.key );
+      }
+    }
+    try {
+      connection.close();
+    } finally {
+      DrillbitBalancer.closed( connection );
+    }
+  }
+
+  private static boolean isClosed( Connection connection ) {
+    try {
+      return connection.isClosed();
+    } catch ( SQLException e ) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * DrillSharedConnectionWrapper is the connection wrapper handed out in shared mode. Closing it releases its use of the
+ * {@link DrillSharedConnection}, which closes the Drill connection when no other wrapper uses it. Aborting it does the
+ * same, as the other users of the Drill connection must not lose it. Once closed, the wrapper throws from every method,
+ * as the Drill connection lives on for the other users.
+ */
+public class DrillSharedConnectionWrapper extends DrillConnectionWrapper {
+
+  /**
+   * Whether the connection has been closed logically
+   */
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  /**
+   * Instantiates a new shared connection wrapper.
+   *
+   * @param connection   the shared Drill connection
+   * @param capabilities the capabilities of the Drill driver
+   * @param config       the plugin options of the connection
+   */
+  public DrillSharedConnectionWrapper( Connection connection, DrillCapabilities capabilities,
+                                       DrillConnectionConfig config ) {
+    super( connection, capabilities, config );
+  }
+
+  @Override
+  protected void checkOpen() throws SQLException {
+    if ( closed.get() ) {
+      throw new SQLException( "Connection is closed" );
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if ( closed.compareAndSet( false, true ) ) {
+      closeCaches();
+      DrillSharedConnection.release( connection );
+    }
+  }
+
+  @Override
+  public void abort( Executor executor ) throws SQLException {
+    close();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed.get() || connection.isClosed();
+  }
+
+  @Override
+  public boolean isValid( int timeout ) throws SQLException {
+    return !closed.get() && super.isValid( timeout );
+  }
+}
@@ -0,0 +1,31 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.SQLException;
+
+/**
+ * Helpers to recognize the exceptions the Drill driver throws for unimplemented methods and unsupported type
+ * conversions. Drill does not expose specific exception classes for these, so the messages are checked instead.
+ */
+final class DrillSqlExceptions {
+
+  private DrillSqlExceptions() {
+  }
+
+  /**
+   * @param e the exception thrown by the Drill driver
+   * @return true if the exception means the called method is not implemented by the driver
+   */
+  static boolean isMethodNotSupported( SQLException e ) {
+    String message = e.getMessage();
+    return message != null && message.startsWith( "Method not supported" );
+  }
+
+  /**
+   * @param e the exception thrown by the Drill driver
+   * @return true if the exception means the requested type conversion is not supported for the column
+   */
+  static boolean isUnsupportedConversion( SQLException e ) {
+    String message = e.getMessage();
+    return message != null && message.startsWith( "Requesting class of type " );
+  }
+}
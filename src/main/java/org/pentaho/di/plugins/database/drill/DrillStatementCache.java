@@ -0,0 +1,141 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * DrillStatementCache keeps the prepared statements of a connection for reuse, so steps that prepare the same SQL over
+ * and over (Database Lookup, Dynamic SQL row etc.) don't have Drill plan it every time. It is used when the
+ * <code>statementCacheSize</code> option is set (see {@link DrillConnectionConfig}).
+ * <p/>
+ * Statements are keyed by SQL text, result set type, concurrency and holdability. The cache holds the Drill statements
+ * themselves: closing a statement handed out by the connection returns its Drill statement to the cache, and the next
+ * prepareStatement call for the same key gets a new wrapper around it, so a closed wrapper can never reach a statement
+ * that went to someone else. When the cache is full, the least recently used statement is closed. Closing the
+ * connection closes all cached statements.
+ */
+final class DrillStatementCache {
+
+  private final int maxSize;
+
+  private final LinkedHashMap<List<Object>, PreparedStatement> statements;
+
+  private boolean closed;
+
+  /**
+   * Instantiates a new statement cache.
+   *
+   * @param maxSize the maximum number of statements kept
+   */
+  DrillStatementCache( int maxSize ) {
+    this.maxSize = maxSize;
+    this.statements = new LinkedHashMap<List<Object>, PreparedStatement>( 16, 0.75f, true );
+  }
+
+  /**
+   * @param sql                  the SQL text
+   * @param resultSetType        the result set type
+   * @param resultSetConcurrency the result set concurrency
+   * @param resultSetHoldability the result set holdability, 0 if not given
+   * @return the key of a statement
+   */
+  static List<Object> getKey( String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability ) {
+    return Arrays.<Object>asList( sql, resultSetType, resultSetConcurrency, resultSetHoldability );
+  }
+
+  /**
+   * Takes a statement out of the cache.
+   *
+   * @param key the key of the statement
+   * @return the Drill statement, or null if none is cached for the key
+   */
+  synchronized PreparedStatement take( List<Object> key ) {
+    return statements.remove( key );
+  }
+
+  /**
+   * Resets the Drill statement of a statement that was closed by its user and offers it to the cache. Its result set
+   * is closed, its parameters are cleared, and its row limit, fetch size and query timeout go back to the JDBC
+   * defaults, so nothing carries over to the next user.
+   *
+   * @param key       the key of the statement
+   * @param statement the Drill statement
+   * @return true if the statement was cached, false if the caller has to close it
+   */
+  boolean release( List<Object> key, PreparedStatement statement ) {
+    try {
+      ResultSet resultSet = statement.getResultSet();
+      if ( resultSet != null ) {
+        resultSet.close();
+      }
+      statement.clearParameters();
+      statement.setMaxRows( 0 );
+      statement.setFetchSize( 0 );
+      statement.setQueryTimeout( 0 );
+    } catch ( SQLException e ) {
+      // The statement can't be reused
+      return false;
+    }
+    return offer( key, statement );
+  }
+
+  /**
+   * Offers a Drill statement to the cache as it is.
+   *
+   * @param key       the key of the statement
+   * @param statement the Drill statement
+   * @return true if the statement was cached, false if the caller has to close it
+   */
+  boolean offer( List<Object> key, PreparedStatement statement ) {
+    List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+    synchronized ( this ) {
+      if ( closed || statements.containsKey( key ) ) {
+        return false;
+      }
+      statements.put( key, statement );
+      Iterator<PreparedStatement> it = statements.values().iterator();
+      while ( statements.size() > maxSize && it.hasNext() ) {
+        evicted.add( it.next() );
+        it.remove();
+      }
+    }
+    closeAll( evicted );
+    return true;
+  }
+
+  /**
+   * Closes all cached statements; statements closed later are not cached anymore.
+   */
+  void close() {
+    List<PreparedStatement> evicted;
+    synchronized ( this ) {
+      closed = true;
+      evicted = new ArrayList<PreparedStatement>( statements.values() );
+      statements.clear();
+    }
+    closeAll( evicted );
+  }
+
+  private static void closeAll( List<PreparedStatement> statements ) {
+    for ( PreparedStatement statement : statements ) {
+      try {
+        statement.close();
+      } catch ( SQLException e ) {
+        // ignore, the statement is given up anyway
+      }
+    }
+  }
+
+  /**
+   * @return the number of cached statements
+   */
+  synchronized int size() {
+    return statements.size();
+  }
+}
@@ -0,0 +1,336 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * DrillStatementWrapper is a delegating java.sql.Statement for Apache Drill statements. Every result set returned by
+ * the statement is wrapped in a {@link DrillResultSetWrapper} so the Drill workarounds apply to it.
+ */
+public class DrillStatementWrapper implements Statement {
+
+  /**
+   * The real Drill statement
+   */
+  protected final Statement statement;
+
+  /**
+   * The connection wrapper that created this statement
+   */
+  protected final DrillConnectionWrapper connection;
+
+  /**
+   * The wrapper of the last result set, handed out again while the Drill statement returns the same result set
+   */
+  private DrillResultSetWrapper resultSet;
+
+  /**
+   * Instantiates a new statement wrapper.
+   *
+   * @param statement  the Drill statement to delegate to
+   * @param connection the connection wrapper that created the statement
+   */
+  public DrillStatementWrapper( Statement statement, DrillConnectionWrapper connection ) {
+    this.statement = statement;
+    this.connection = connection;
+  }
+
+  /**
+   * Checks that the statement can still be used. Plain statements close their Drill statement, which then fails by
+   * itself; a cached prepared statement outlives its wrapper, so {@link DrillPreparedStatementWrapper} checks here.
+   *
+   * @throws SQLException if the statement is closed
+   */
+  protected void checkOpen() throws SQLException {
+  }
+
+  /**
+   * Wraps a result set returned by the Drill statement. Callers such as Kettle ask for the result set of a statement
+   * more than once, so the wrapper of the last result set is reused as long as the Drill result set is the same.
+   *
+   * @param resultSet the Drill result set, may be null
+   * @return the wrapped result set, or null if there was none
+   */
+  protected ResultSet wrap( ResultSet resultSet ) {
+    if ( resultSet == null ) {
+      return null;
+    }
+    if ( this.resultSet == null || this.resultSet.resultSet != resultSet ) {
+      this.resultSet = new DrillResultSetWrapper( resultSet, this, connection );
+    }
+    return this.resultSet;
+  }
+
+  @Override
+  public void addBatch( String sql ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    statement.addBatch( sql );
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    checkOpen();
+    statement.cancel();
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    checkOpen();
+    statement.clearBatch();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    checkOpen();
+    statement.clearWarnings();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    statement.close();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    checkOpen();
+    statement.closeOnCompletion();
+  }
+
+  @Override
+  public boolean execute( String sql ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.execute( sql );
+  }
+
+  @Override
+  public boolean execute( String sql, int[] columnIndexes ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.execute( sql, columnIndexes );
+  }
+
+  @Override
+  public boolean execute( String sql, String[] columnNames ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.execute( sql, columnNames );
+  }
+
+  @Override
+  public boolean execute( String sql, int autoGeneratedKeys ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.execute( sql, autoGeneratedKeys );
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    checkOpen();
+    return statement.executeBatch();
+  }
+
+  @Override
+  public ResultSet executeQuery( String sql ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return wrap( statement.executeQuery( sql ) );
+  }
+
+  @Override
+  public int executeUpdate( String sql ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.executeUpdate( sql );
+  }
+
+  @Override
+  public int executeUpdate( String sql, int[] columnIndexes ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.executeUpdate( sql, columnIndexes );
+  }
+
+  @Override
+  public int executeUpdate( String sql, String[] columnNames ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.executeUpdate( sql, columnNames );
+  }
+
+  @Override
+  public int executeUpdate( String sql, int autoGeneratedKeys ) throws SQLException {
+    checkOpen();
+    connection.recordStatement( sql );
+    return statement.executeUpdate( sql, autoGeneratedKeys );
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    checkOpen();
+    return connection;
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    checkOpen();
+    return statement.getFetchDirection();
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    checkOpen();
+    return statement.getFetchSize();
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    checkOpen();
+    return wrap( statement.getGeneratedKeys() );
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    checkOpen();
+    return statement.getMaxFieldSize();
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    checkOpen();
+    return statement.getMaxRows();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    checkOpen();
+    return statement.getMoreResults();
+  }
+
+  @Override
+  public boolean getMoreResults( int current ) throws SQLException {
+    checkOpen();
+    return statement.getMoreResults( current );
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    checkOpen();
+    return statement.getQueryTimeout();
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    checkOpen();
+    return wrap( statement.getResultSet() );
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    checkOpen();
+    return statement.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    checkOpen();
+    return statement.getResultSetHoldability();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    checkOpen();
+    return statement.getResultSetType();
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    checkOpen();
+    return statement.getUpdateCount();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    checkOpen();
+    return statement.getWarnings();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    checkOpen();
+    return statement.isCloseOnCompletion();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return statement.isClosed();
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    checkOpen();
+    return statement.isPoolable();
+  }
+
+  @Override
+  public void setCursorName( String name ) throws SQLException {
+    checkOpen();
+    statement.setCursorName( name );
+  }
+
+  @Override
+  public void setEscapeProcessing( boolean escapeProcessing ) throws SQLException {
+    checkOpen();
+    statement.setEscapeProcessing( escapeProcessing );
+  }
+
+  @Override
+  public void setFetchDirection( int fetchDirection ) throws SQLException {
+    checkOpen();
+    statement.setFetchDirection( fetchDirection );
+  }
+
+  @Override
+  public void setFetchSize( int fetchSize ) throws SQLException {
+    checkOpen();
+    statement.setFetchSize( fetchSize );
+  }
+
+  @Override
+  public void setMaxFieldSize( int maxFieldSize ) throws SQLException {
+    checkOpen();
+    statement.setMaxFieldSize( maxFieldSize );
+  }
+
+  @Override
+  public void setMaxRows( int maxRows ) throws SQLException {
+    checkOpen();
+    statement.setMaxRows( maxRows );
+  }
+
+  @Override
+  public void setPoolable( boolean poolable ) throws SQLException {
+    checkOpen();
+    statement.setPoolable( poolable );
+  }
+
+  @Override
+  public void setQueryTimeout( int queryTimeout ) throws SQLException {
+    checkOpen();
+    statement.setQueryTimeout( queryTimeout );
+  }
+
+  @Override
+  public <T> T unwrap( Class<T> iface ) throws SQLException {
+    return DrillWrappers.unwrap( this, statement, iface );
+  }
+
+  @Override
+  public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+    return DrillWrappers.isWrapperFor( this, statement, iface );
+  }
+}
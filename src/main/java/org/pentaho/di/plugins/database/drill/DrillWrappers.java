@@ -0,0 +1,47 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.SQLException;
+import java.sql.Wrapper;
+
+/**
+ * DrillWrappers implements java.sql.Wrapper the same way for every JDBC object this plugin hands out, whether it is
+ * one of the wrapper classes or a proxy of {@link DriverProxyInvocationChain}: an interface implemented by the
+ * plugin's object unwraps to that object, anything else unwraps to the Drill object underneath (for instance
+ * org.apache.drill.jdbc.DrillConnection), or to whatever the Drill object itself unwraps to. This lets
+ * performance-sensitive code get at the native Drill objects and skip the compatibility layer.
+ */
+final class DrillWrappers {
+
+  private DrillWrappers() {
+  }
+
+  /**
+   * Unwraps a JDBC object of this plugin.
+   *
+   * @param wrapper  the object of this plugin, i.e. the wrapper or proxy
+   * @param delegate the Drill object it delegates to
+   * @param iface    the interface to unwrap to
+   * @return the object implementing the interface
+   * @throws SQLException if neither object implements or wraps the interface
+   */
+  static <T> T unwrap( Object wrapper, Wrapper delegate, Class<T> iface ) throws SQLException {
+    if ( iface.isInstance( wrapper ) ) {
+      return iface.cast( wrapper );
+    }
+    if ( iface.isInstance( delegate ) ) {
+      return iface.cast( delegate );
+    }
+    return delegate.unwrap( iface );
+  }
+
+  /**
+   * @param wrapper  the object of this plugin, i.e. the wrapper or proxy
+   * @param delegate the Drill object it delegates to
+   * @param iface    the interface
+   * @return true if {@link #unwrap(Object, Wrapper, Class)} would succeed for the interface
+   * @throws SQLException if the Drill object fails to answer
+   */
+  static boolean isWrapperFor( Object wrapper, Wrapper delegate, Class<?> iface ) throws SQLException {
+    return iface.isInstance( wrapper ) || iface.isInstance( delegate ) || delegate.isWrapperFor( iface );
+  }
+}
@@ -0,0 +1,219 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DrillbitBalancer picks the drillbit a new connection goes to, so the foremen of the queries are spread over the
+ * cluster instead of piling up on the few drillbits the Drill client happens to pick. It is used by
+ * {@link DrillbitDiscovery} when the <code>balancing</code> option is set and the drillbits are known, either from a
+ * <code>drillbit=</code> URL or from discovery.
+ * <p/>
+ * The balancer counts the connections of this plugin in use per drillbit, whether they were opened to a drillbit it
+ * picked or through ZooKeeper. Every query runs with the drillbit of its connection as foreman, so the connections in
+ * use approximate the load the plugin puts on each drillbit; queries are not counted. A pooled connection waiting in
+ * its {@link DrillConnectionPool} is not in use and is not counted until it is borrowed again.
+ */
+public final class DrillbitBalancer {
+
+  /**
+   * How the drillbit of a new connection is picked
+   */
+  public enum Policy {
+    /**
+     * The Drill client picks the drillbit. This is the default.
+     */
+    NONE( "none" ),
+    /**
+     * The drillbits are used in turn
+     */
+    ROUND_ROBIN( "roundRobin" ),
+    /**
+     * A drillbit is picked at random
+     */
+    RANDOM( "random" ),
+    /**
+     * The drillbit with the fewest connections of this plugin in use is picked
+     */
+    LEAST_CONNECTIONS( "leastConnections" );
+
+    private final String code;
+
+    Policy( String code ) {
+      this.code = code;
+    }
+
+    /**
+     * @return the option value that selects this policy
+     */
+    public String getCode() {
+      return code;
+    }
+
+    /**
+     * Looks the policy up by its option value, ignoring case.
+     *
+     * @param code the option value
+     * @return the policy
+     * @throws SQLException if the value is not known
+     */
+    public static Policy fromCode( String code ) throws SQLException {
+      for ( Policy policy : values() ) {
+        if ( policy.code.equalsIgnoreCase( code.trim() ) ) {
+          return policy;
+        }
+      }
+      throw new SQLException( "Invalid value for option " + DrillConnectionConfig.OPTION_BALANCING + ": " + code );
+    }
+  }
+
+  private static final AtomicInteger nextIndex = new AtomicInteger();
+
+  private static final ConcurrentMap<String, AtomicInteger> inUseByDrillbit =
+    new ConcurrentHashMap<String, AtomicInteger>();
+
+  /**
+   * The connections placed by the balancer, guarded by itself
+   */
+  private static final Map<Connection, Placement> placements = new IdentityHashMap<Connection, Placement>();
+
+  private DrillbitBalancer() {
+  }
+
+  /**
+   * Picks the drillbit for a new connection.
+   *
+   * @param policy    the balancing policy, not NONE
+   * @param drillbits the drillbits as host:port
+   * @return the drillbit to connect to
+   */
+  static String choose( Policy policy, List<String> drillbits ) {
+    int size = drillbits.size();
+    switch ( policy ) {
+      case RANDOM:
+        return drillbits.get( ThreadLocalRandom.current().nextInt( size ) );
+      case LEAST_CONNECTIONS:
+        // Start at the next round robin position, so drillbits with the same count are used in turn
+        int start = nextIndex();
+        String least = null;
+        int leastInUse = Integer.MAX_VALUE;
+        for ( int i = 0; i < size; i++ ) {
+          String drillbit = drillbits.get( ( start + i ) % size );
+          int inUse = getConnectionsInUse( drillbit );
+          if ( inUse < leastInUse ) {
+            least = drillbit;
+            leastInUse = inUse;
+          }
+        }
+        return least;
+      default:
+        return drillbits.get( nextIndex() % size );
+    }
+  }
+
+  private static int nextIndex() {
+    return nextIndex.getAndIncrement() & Integer.MAX_VALUE;
+  }
+
+  /**
+   * @param drillbit the drillbit as host:port
+   * @return the number of connections of this plugin in use on the drillbit
+   */
+  public static int getConnectionsInUse( String drillbit ) {
+    AtomicInteger inUse = inUseByDrillbit.get( drillbit );
+    return inUse == null ? 0 : inUse.get();
+  }
+
+  private static AtomicInteger getInUseCounter( String drillbit ) {
+    AtomicInteger inUse = inUseByDrillbit.get( drillbit );
+    if ( inUse == null ) {
+      AtomicInteger newInUse = new AtomicInteger();
+      inUse = inUseByDrillbit.putIfAbsent( drillbit, newInUse );
+      if ( inUse == null ) {
+        inUse = newInUse;
+      }
+    }
+    return inUse;
+  }
+
+  /**
+   * Records a connection opened to a drillbit. It is in use until it is released to a pool or closed.
+   *
+   * @param connection the Drill connection
+   * @param drillbit   the drillbit as host:port
+   */
+  static void opened( Connection connection, String drillbit ) {
+    AtomicInteger inUse = getInUseCounter( drillbit );
+    synchronized ( placements ) {
+      placements.put( connection, new Placement( inUse ) );
+      inUse.incrementAndGet();
+    }
+  }
+
+  /**
+   * Records that a pooled connection was borrowed from its pool. Connections the balancer did not place are ignored.
+   *
+   * @param connection the Drill connection
+   */
+  static void borrowed( Connection connection ) {
+    setInUse( connection, true );
+  }
+
+  /**
+   * Records that a pooled connection was returned to its pool. Connections the balancer did not place are ignored.
+   *
+   * @param connection the Drill connection
+   */
+  static void released( Connection connection ) {
+    setInUse( connection, false );
+  }
+
+  private static void setInUse( Connection connection, boolean inUse ) {
+    synchronized ( placements ) {
+      Placement placement = placements.get( connection );
+      if ( placement != null && placement.inUse != inUse ) {
+        placement.inUse = inUse;
+        if ( inUse ) {
+          placement.counter.incrementAndGet();
+        } else {
+          placement.counter.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Records that a connection was closed. Connections the balancer did not place are ignored.
+   *
+   * @param connection the Drill connection
+   */
+  public static void closed( Connection connection ) {
+    synchronized ( placements ) {
+      Placement placement = placements.remove( connection );
+      if ( placement != null && placement.inUse ) {
+        placement.counter.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * The in use counter of the drillbit a connection was placed on, and whether the connection is in use
+   */
+  private static final class Placement {
+
+    final AtomicInteger counter;
+
+    boolean inUse = true;
+
+    Placement( AtomicInteger counter ) {
+      this.counter = counter;
+    }
+  }
+}
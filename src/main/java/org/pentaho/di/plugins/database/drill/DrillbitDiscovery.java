@@ -0,0 +1,300 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.pentaho.di.plugins.database.drill.DrillbitBalancer.Policy;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * DrillbitDiscovery opens the Drill connections of this plugin. Normally that is a plain connect with the configured
+ * URL. When the <code>drillbitDiscoveryTtl</code> option is set and the URL goes through ZooKeeper
+ * (<code>jdbc:drill:zk=...</code>), the drillbits of the cluster are read from <code>sys.drillbits</code> on the first
+ * connection and remembered for that many seconds. Until then, connections go straight to the drillbits with a
+ * <code>jdbc:drill:drillbit=...</code> URL, so ZooKeeper is not asked on every connect and a ZooKeeper hiccup doesn't
+ * stall the jobs. If none of the remembered drillbits can be reached, they are dropped and the connection goes through
+ * ZooKeeper again.
+ * <p/>
+ * The Drill client takes a single drillbit in a <code>drillbit=</code> URL, so the plugin does the failover itself: a
+ * URL listing several drillbits (<code>jdbc:drill:drillbit=host1:port,host2:port</code>, as the
+ * <code>directDrillbits</code> option of {@link DrillDatabaseMeta} builds it) is handed to the driver one drillbit at a
+ * time, until a connect succeeds.
+ * <p/>
+ * When the drillbits are known, the <code>balancing</code> option lets {@link DrillbitBalancer} pick the one a new
+ * connection goes to. A connection that had to go through ZooKeeper is counted by the balancer too, on the drillbit
+ * that sys.drillbits marks as <code>current</code>; Drill versions without that column leave it uncounted.
+ * <p/>
+ * Every new connection gets the session options of the configuration, see {@link DrillSessionOptions}.
+ */
+public final class DrillbitDiscovery {
+
+  /**
+   * The query that lists the drillbits of the cluster
+   */
+  static final String DRILLBITS_SQL = "SELECT * FROM sys.drillbits";
+
+  /**
+   * The URL parameter that selects ZooKeeper
+   */
+  static final String ZK_PARAMETER = "zk=";
+
+  /**
+   * The URL parameter that selects drillbits directly
+   */
+  static final String DRILLBIT_PARAMETER = "drillbit=";
+
+  /**
+   * How long the drillbits are remembered for balancing when no discovery TTL is configured, in milliseconds
+   */
+  static final long BALANCING_DISCOVERY_TTL_MILLIS = 60000L;
+
+  private static final ConcurrentMap<String, Drillbits> drillbitsByCluster =
+    new ConcurrentHashMap<String, Drillbits>();
+
+  private DrillbitDiscovery() {
+  }
+
+  /**
+   * Opens a Drill connection for a configuration.
+   *
+   * @param driver the Drill driver
+   * @param config the connection configuration
+   * @return the connection, or null if the driver does not accept the URL
+   * @throws SQLException if the connection cannot be opened or a session option cannot be set
+   */
+  public static Connection connect( Driver driver, DrillConnectionConfig config ) throws SQLException {
+    Connection connection = open( driver, config );
+    if ( connection != null && !config.getSessionOptions().isEmpty() ) {
+      boolean applied = false;
+      try {
+        DrillSessionOptions.apply( connection, config.getSessionOptions() );
+        applied = true;
+      } finally {
+        if ( !applied ) {
+          try {
+            connection.close();
+          } catch ( SQLException e ) {
+            // ignore, the session option failure is reported
+          } finally {
+            DrillbitBalancer.closed( connection );
+          }
+        }
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * Opens the Drill connection, going to the remembered or balanced drillbits when there are.
+   */
+  private static Connection open( Driver driver, DrillConnectionConfig config ) throws SQLException {
+    String url = config.getUrl();
+    Policy policy = config.getBalancing();
+    List<String> endpoints = getDirectEndpoints( url );
+    String cluster = null;
+    Drillbits drillbits = null;
+    long ttl = config.getDrillbitDiscoveryTtlMillis();
+    if ( endpoints == null ) {
+      cluster = getCluster( url );
+      if ( ttl <= 0 && policy != Policy.NONE ) {
+        // Balancing needs to know the drillbits
+        ttl = BALANCING_DISCOVERY_TTL_MILLIS;
+      }
+      if ( cluster == null || ttl <= 0 ) {
+        return driver.connect( url, config.getInfo() );
+      }
+      drillbits = drillbitsByCluster.get( cluster );
+      if ( drillbits != null && drillbits.expiresAt > System.currentTimeMillis() ) {
+        endpoints = drillbits.endpoints;
+      }
+      if ( endpoints == null ) {
+        return discover( driver, config, cluster, ttl );
+      }
+    }
+
+    SQLException failure = null;
+    for ( String endpoint : getConnectOrder( policy, endpoints ) ) {
+      try {
+        Connection connection = driver.connect( getDirectUrl( url, endpoint ), config.getInfo() );
+        if ( connection == null ) {
+          // The driver does not accept the URL, whichever drillbit it names
+          break;
+        }
+        if ( policy != Policy.NONE ) {
+          DrillbitBalancer.opened( connection, endpoint );
+        }
+        return connection;
+      } catch ( SQLException e ) {
+        // Try the next drillbit
+        failure = e;
+      }
+    }
+
+    if ( cluster == null ) {
+      if ( failure != null ) {
+        throw failure;
+      }
+      return null;
+    }
+    // The drillbits may have changed, ask ZooKeeper again
+    drillbitsByCluster.remove( cluster, drillbits );
+    return discover( driver, config, cluster, ttl );
+  }
+
+  /**
+   * @return the drillbits in the order they are tried: the balanced one first, then the others in turn
+   */
+  private static List<String> getConnectOrder( Policy policy, List<String> endpoints ) {
+    if ( policy == Policy.NONE || endpoints.size() < 2 ) {
+      return endpoints;
+    }
+    int first = endpoints.indexOf( DrillbitBalancer.choose( policy, endpoints ) );
+    List<String> order = new ArrayList<String>( endpoints.size() );
+    order.addAll( endpoints.subList( first, endpoints.size() ) );
+    order.addAll( endpoints.subList( 0, first ) );
+    return order;
+  }
+
+  /**
+   * Connects through ZooKeeper and remembers the drillbits of the cluster.
+   */
+  private static Connection discover( Driver driver, DrillConnectionConfig config, String cluster, long ttl )
+    throws SQLException {
+    Connection connection = driver.connect( config.getUrl(), config.getInfo() );
+    if ( connection != null ) {
+      List<String> endpoints = new ArrayList<String>();
+      String current = readEndpoints( connection, endpoints );
+      if ( !endpoints.isEmpty() ) {
+        drillbitsByCluster.put( cluster, new Drillbits( endpoints, System.currentTimeMillis() + ttl ) );
+      }
+      if ( current != null && config.getBalancing() != Policy.NONE ) {
+        DrillbitBalancer.opened( connection, current );
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * Forgets the drillbits of all clusters.
+   */
+  public static void clear() {
+    drillbitsByCluster.clear();
+  }
+
+  /**
+   * @param url the Drill URL
+   * @return the ZooKeeper part of the URL, identifying the cluster, or null if the URL does not go through ZooKeeper
+   */
+  static String getCluster( String url ) {
+    if ( url == null || !url.startsWith( DrillConnectionConfig.URL_PREFIX + ZK_PARAMETER ) ) {
+      return null;
+    }
+    int end = url.indexOf( DrillConnectionConfig.URL_SEPARATOR );
+    return end < 0 ? url : url.substring( 0, end );
+  }
+
+  /**
+   * @param url the Drill URL
+   * @return the drillbits of a URL that connects to drillbits directly, or null for other URLs
+   */
+  static List<String> getDirectEndpoints( String url ) {
+    String prefix = DrillConnectionConfig.URL_PREFIX + DRILLBIT_PARAMETER;
+    if ( url == null || !url.startsWith( prefix ) ) {
+      return null;
+    }
+    int end = url.indexOf( DrillConnectionConfig.URL_SEPARATOR );
+    String drillbits = url.substring( prefix.length(), end < 0 ? url.length() : end );
+    List<String> endpoints = new ArrayList<String>();
+    for ( String endpoint : drillbits.split( "," ) ) {
+      if ( endpoint.trim().length() > 0 ) {
+        endpoints.add( endpoint.trim() );
+      }
+    }
+    return endpoints;
+  }
+
+  /**
+   * Replaces the ZooKeeper part or the drillbit list of a URL with a single drillbit, as the Drill client takes one.
+   *
+   * @param url      the Drill URL
+   * @param endpoint the drillbit as host:port
+   * @return the URL connecting to the drillbit directly, with the same parameters
+   */
+  static String getDirectUrl( String url, String endpoint ) {
+    StringBuilder directUrl =
+      new StringBuilder( DrillConnectionConfig.URL_PREFIX ).append( DRILLBIT_PARAMETER ).append( endpoint );
+    int parameters = url.indexOf( DrillConnectionConfig.URL_SEPARATOR );
+    if ( parameters >= 0 ) {
+      directUrl.append( url, parameters, url.length() );
+    }
+    return directUrl.toString();
+  }
+
+  /**
+   * Reads the drillbits of the cluster a connection belongs to. Failing to read them is not an error, the connection
+   * just keeps going through ZooKeeper.
+   *
+   * @param connection the Drill connection
+   * @param endpoints    receives the drillbits as host:port, left empty if they cannot be read
+   * @return the drillbit the connection is on, or null if Drill does not tell
+   */
+  private static String readEndpoints( Connection connection, List<String> endpoints ) {
+    String current = null;
+    try {
+      Statement statement = connection.createStatement();
+      try {
+        ResultSet resultSet = statement.executeQuery( DRILLBITS_SQL );
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int hostnameColumn = 0;
+        int userPortColumn = 0;
+        int currentColumn = 0;
+        for ( int i = 1; i <= metaData.getColumnCount(); i++ ) {
+          String label = metaData.getColumnLabel( i );
+          if ( "hostname".equalsIgnoreCase( label ) ) {
+            hostnameColumn = i;
+          } else if ( "user_port".equalsIgnoreCase( label ) ) {
+            userPortColumn = i;
+          } else if ( "current".equalsIgnoreCase( label ) ) {
+            currentColumn = i;
+          }
+        }
+        while ( hostnameColumn > 0 && userPortColumn > 0 && resultSet.next() ) {
+          String endpoint = resultSet.getString( hostnameColumn ) + ":" + resultSet.getInt( userPortColumn );
+          endpoints.add( endpoint );
+          if ( currentColumn > 0 && resultSet.getBoolean( currentColumn ) ) {
+            current = endpoint;
+          }
+        }
+        resultSet.close();
+      } finally {
+        statement.close();
+      }
+    } catch ( SQLException e ) {
+      endpoints.clear();
+      return null;
+    }
+    return current;
+  }
+
+  /**
+   * The drillbits of a cluster and the time until they can be used
+   */
+  private static final class Drillbits {
+
+    final List<String> endpoints;
+
+    final long expiresAt;
+
+    Drillbits( List<String> endpoints, long expiresAt ) {
+      this.endpoints = endpoints;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -22,6 +22,8 @@
 
 package org.pentaho.di.plugins.database.drill;
 
+import org.pentaho.di.plugins.database.drill.DrillCapabilities.Feature;
+
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -35,6 +37,10 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * DriverProxyInvocationChain is a temporary solution for interacting with Hive drivers. At the time this class was
@@ -94,6 +100,18 @@ public class DriverProxyInvocationChain {
    */
   private static class DriverInvocationHandler implements InvocationHandler {
 
+    /**
+     * The actions taken for Driver methods
+     */
+    private enum Action {
+      FORWARD, CONNECT, ACCEPTS_URL
+    }
+
+    private static final MethodDispatchTable<Action> DISPATCH =
+      new MethodDispatchTable<Action>( Driver.class, Action.FORWARD )
+        .map( Action.CONNECT, "connect", String.class, Properties.class )
+        .map( Action.ACCEPTS_URL, "acceptsURL", String.class );
+
     /**
      * The real driver object
      */
@@ -121,12 +139,33 @@ public class DriverProxyInvocationChain {
     public Object invoke( final Object proxy, Method method, Object[] args ) throws Throwable {
 
       try {
-        Object o = method.invoke( driver, args );
+        DrillConnectionConfig config = DrillConnectionConfig.DEFAULT;
+        DrillConnectionPool pool = null;
+        Object o;
+        Action action = DISPATCH.get( method );
+        if ( action == Action.ACCEPTS_URL ) {
+          return DrillConnectionConfig.isDrillUrl( (String) args[0] );
+        } else if ( action == Action.CONNECT ) {
+          // Take the plugin options out of the URL and properties, Drill does not know them
+          config = DrillConnectionConfig.parse( (String) args[0], (Properties) args[1] );
+          if ( config.isShared() ) {
+            o = DrillSharedConnection.acquire( driver, config );
+          } else if ( config.isPooled() ) {
+            pool = DrillConnectionPool.forConfig( driver, config );
+            o = pool.borrow();
+          } else {
+            o = DrillbitDiscovery.connect( driver, config );
+          }
+        } else {
+          o = method.invoke( driver, args );
+        }
         if ( o instanceof Connection ) {
+          Connection c = (Connection) o;
 
           // Intercept the Connection object so we can proxy that too
           return Proxy.newProxyInstance( o.getClass().getClassLoader(),
-                new Class[]{Connection.class}, new ConnectionInvocationHandler( (Connection) o ) );
+                new Class[]{Connection.class},
+                new ConnectionInvocationHandler( c, DrillCapabilities.forDriver( driver, c ), config, pool ) );
         } else {
           return o;
         }
@@ -143,18 +182,124 @@ public class DriverProxyInvocationChain {
    */
   private static class ConnectionInvocationHandler implements InvocationHandler {
 
+    /**
+     * The actions taken for Connection methods
+     */
+    private enum Action {
+      FORWARD, CREATE_STATEMENT, PREPARE_STATEMENT, GET_META_DATA, UNWRAP, IS_WRAPPER_FOR,
+      CLOSE( true ), ABORT( true ), IS_CLOSED( true ), IS_VALID( true ), SET_CATALOG, SET_SCHEMA,
+      CREATE_STATEMENT_WITH_TYPE( Feature.CREATE_STATEMENT_WITH_TYPE ),
+      IS_READ_ONLY( Feature.IS_READ_ONLY ),
+      SET_READ_ONLY( Feature.SET_READ_ONLY ),
+      SET_AUTO_COMMIT( Feature.SET_AUTO_COMMIT );
+
+      /**
+       * The capability that decides whether the fallback is used, or null if there is no fallback
+       */
+      final Feature feature;
+
+      /**
+       * Whether the method is handled differently for pooled and shared connections
+       */
+      final boolean pooled;
+
+      Action() {
+        this( null, false );
+      }
+
+      Action( boolean pooled ) {
+        this( null, pooled );
+      }
+
+      Action( Feature feature ) {
+        this( feature, false );
+      }
+
+      Action( Feature feature, boolean pooled ) {
+        this.feature = feature;
+        this.pooled = pooled;
+      }
+    }
+
+    private static final MethodDispatchTable<Action> DISPATCH =
+      new MethodDispatchTable<Action>( Connection.class, Action.FORWARD )
+        .mapAll( Action.CREATE_STATEMENT_WITH_TYPE, "createStatement" )
+        .map( Action.CREATE_STATEMENT, "createStatement" )
+        .mapAll( Action.PREPARE_STATEMENT, "prepareStatement" )
+        .map( Action.GET_META_DATA, "getMetaData" )
+        .map( Action.IS_READ_ONLY, "isReadOnly" )
+        .map( Action.SET_READ_ONLY, "setReadOnly", boolean.class )
+        .map( Action.SET_AUTO_COMMIT, "setAutoCommit", boolean.class )
+        .map( Action.SET_CATALOG, "setCatalog", String.class )
+        .map( Action.SET_SCHEMA, "setSchema", String.class )
+        .map( Action.IS_VALID, "isValid", int.class )
+        .map( Action.CLOSE, "close" )
+        .map( Action.ABORT, "abort", Executor.class )
+        .map( Action.IS_CLOSED, "isClosed" )
+        .map( Action.UNWRAP, "unwrap", Class.class )
+        .map( Action.IS_WRAPPER_FOR, "isWrapperFor", Class.class );
+
     /**
      * The real connection object
      */
     Connection connection;
 
+    /**
+     * The known capabilities of the Drill driver
+     */
+    DrillCapabilities capabilities;
+
+    /**
+     * The configuration of the connection
+     */
+    DrillConnectionConfig config;
+
+    /**
+     * The pool the connection was borrowed from, or null if the connection is not pooled
+     */
+    DrillConnectionPool pool;
+
+    /**
+     * Whether a pooled or shared connection has been closed logically
+     */
+    AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * The settings the borrower of a pooled connection changed, to put back when it is returned
+     */
+    DrillConnectionState state = new DrillConnectionState();
+
+    /**
+     * The prepared statements kept for reuse, or null if the connection does not keep them
+     */
+    DrillStatementCache statementCache;
+
+    /**
+     * Runs the background metadata refreshes started through this connection
+     */
+    DrillMetadataRefresher metadataRefresher = new DrillMetadataRefresher();
+
+    /**
+     * Whether a statement run through this connection changed the Drill session
+     */
+    AtomicBoolean sessionChanged = new AtomicBoolean();
+
     /**
      * Instantiates a new connection invocation handler.
      *
-     * @param obj the obj
+     * @param obj          the obj
+     * @param capabilities the capabilities of the Drill driver
+     * @param config       the configuration of the connection
+     * @param pool         the pool the connection was borrowed from, or null
      */
-    public ConnectionInvocationHandler( Connection obj ) {
+    public ConnectionInvocationHandler( Connection obj, DrillCapabilities capabilities,
+      DrillConnectionConfig config, DrillConnectionPool pool ) {
       connection = obj;
+      this.capabilities = capabilities;
+      this.config = config;
+      this.pool = pool;
+      int statementCacheSize = config.getStatementCacheSize();
+      this.statementCache = statementCacheSize > 0 ? new DrillStatementCache( statementCacheSize ) : null;
     }
 
     /**
@@ -168,59 +313,209 @@ public class DriverProxyInvocationChain {
      */
     @Override
     public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      Action action = DISPATCH.get( method );
+      if ( action == Action.UNWRAP ) {
+        return DrillWrappers.unwrap( proxy, connection, (Class<?>) args[0] );
+      } else if ( action == Action.IS_WRAPPER_FOR ) {
+        return DrillWrappers.isWrapperFor( proxy, connection, (Class<?>) args[0] );
+      }
+      if ( closed.get() && !action.pooled ) {
+        // Closed logically, the pooled or shared Drill connection may be in use by others by now
+        throw new SQLException( "Connection is closed" );
+      }
+      if ( pool != null ) {
+        saveState( (Connection) proxy, action );
+      } else if ( action == Action.SET_CATALOG || action == Action.SET_SCHEMA ) {
+        // Drill sets them with a USE statement; a pooled connection puts them back on close instead
+        sessionChanged.set( true );
+      }
+      if ( action == Action.CLOSE || action == Action.ABORT ) {
+        metadataRefresher.cancel();
+      }
+      if ( action == Action.PREPARE_STATEMENT && DrillSessionOptions.changesSession( (String) args[0] ) ) {
+        sessionChanged.set( true );
+      }
+      List<Object> cacheKey = null;
+      PreparedStatement cached = null;
+      if ( statementCache != null ) {
+        if ( action == Action.PREPARE_STATEMENT ) {
+          cacheKey = getCacheKey( method, args );
+          cached = cacheKey == null ? null : statementCache.take( cacheKey );
+          if ( cached != null && cached.isClosed() ) {
+            // Closed by Drill in the meantime, for instance by closeOnCompletion
+            cached = null;
+          }
+        } else if ( action == Action.CLOSE || action == Action.ABORT ) {
+          statementCache.close();
+        }
+      }
+      if ( ( pool != null || config.isShared() ) && action.pooled ) {
+        return invokePooled( (Connection) proxy, action, args );
+      } else if ( action == Action.CLOSE || action == Action.ABORT ) {
+        try {
+          return method.invoke( connection, args );
+        } catch ( InvocationTargetException ite ) {
+          throw ite.getCause();
+        } finally {
+          DrillbitBalancer.closed( connection );
+        }
+      }
       Object o;
-      try {
-        o = method.invoke( connection, args );
-      } catch ( Throwable t ) {
+      if ( cached != null ) {
+        // A new proxy around the cached Drill statement, the proxy of its last user stays closed
+        o = cached;
+      } else if ( action.feature != null && !capabilities.isSupported( action.feature ) ) {
+        o = fallback( action, args );
+      } else {
+        try {
+          o = method.invoke( connection, args );
+        } catch ( InvocationTargetException ite ) {
+          Throwable cause = ite.getCause();
 
-        if ( t instanceof InvocationTargetException ) {
-          Throwable cause = t.getCause();
-
-          if ( cause instanceof SQLException ) {
-            if ( cause.getMessage().equals( "Method not supported" ) ) {
-              String methodName = method.getName();
-              if ( "createStatement".equals( methodName ) ) {
-                o = createStatement( connection, args );
-              } else if ( "isReadOnly".equals( methodName ) ) {
-                o = Boolean.FALSE;
-              } else if ( "setReadOnly".equals( methodName ) ) {
-                o = null;
-              } else if ( "setAutoCommit".equals( methodName ) ) {
-                o = null;
-              } else {
-                throw cause;
-              }
-            } else {
-              throw cause;
-            }
+          if ( action.feature != null && cause instanceof SQLException
+            && capabilities.recordFailure( action.feature, (SQLException) cause ) ) {
+            o = fallback( action, args );
           } else {
             throw cause;
           }
-        } else {
-          throw t;
         }
+      }
 
+      if ( o == null ) {
+        return null;
       }
-      if ( o instanceof DatabaseMetaData ) {
-        DatabaseMetaData dbmd = (DatabaseMetaData) o;
+      switch ( action ) {
+        case GET_META_DATA:
+          DatabaseMetaData dbmd = (DatabaseMetaData) o;
+
+          // Intercept the DatabaseMetaData object so we can proxy that too
+          return Proxy.newProxyInstance( dbmd.getClass().getClassLoader(),
+                new Class[]{DatabaseMetaData.class},
+                new DatabaseMetaDataInvocationHandler( dbmd, (Connection) proxy, capabilities, config,
+                  metadataRefresher ) );
+        case PREPARE_STATEMENT:
+          PreparedStatement ps = (PreparedStatement) o;
+
+          // Intercept the Statement object so we can proxy that too
+          return Proxy.newProxyInstance( ps.getClass().getClassLoader(),
+                new Class[]{PreparedStatement.class},
+                new CaptureResultSetInvocationHandler<PreparedStatement>( ps, PreparedStatement.class, capabilities,
+                  config, statementCache, cacheKey, (String) args[0], sessionChanged ) );
+        case CREATE_STATEMENT:
+        case CREATE_STATEMENT_WITH_TYPE:
+          Statement st = (Statement) o;
+          CaptureResultSetInvocationHandler<Statement> handler =
+            new CaptureResultSetInvocationHandler<Statement>( st, Statement.class, capabilities, config );
+          handler.sessionChanged = sessionChanged;
+
+          // Intercept the Statement object so we can proxy that too
+          return Proxy.newProxyInstance( st.getClass().getClassLoader(), new Class[]{Statement.class}, handler );
+        default:
+          return o;
+      }
+    }
 
-        // Intercept the DatabaseMetaData object so we can proxy that too
-        return Proxy.newProxyInstance( dbmd.getClass().getClassLoader(),
-              new Class[]{DatabaseMetaData.class}, new DatabaseMetaDataInvocationHandler( dbmd, this ) );
-      } else if ( o instanceof PreparedStatement ) {
-        PreparedStatement st = (PreparedStatement) o;
+    /**
+     * Returns the key of a prepared statement in the statement cache. Only statements prepared with the SQL text and
+     * optionally the result set type, concurrency and holdability are cached.
+     *
+     * @param method the prepareStatement method
+     * @param args   the args
+     * @return the key, or null if the statement is not cached
+     */
+    private List<Object> getCacheKey( Method method, Object[] args ) {
+      Class<?>[] parameterTypes = method.getParameterTypes();
+      if ( parameterTypes.length == 1 ) {
+        return DrillStatementCache.getKey( (String) args[0], ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+          0 );
+      } else if ( parameterTypes.length >= 3 ) {
+        return DrillStatementCache.getKey( (String) args[0], (Integer) args[1], (Integer) args[2],
+          parameterTypes.length == 4 ? (Integer) args[3] : 0 );
+      }
+      return null;
+    }
 
-        // Intercept the Statement object so we can proxy that too
-        return Proxy.newProxyInstance( st.getClass().getClassLoader(),
-              new Class[]{PreparedStatement.class}, new CaptureResultSetInvocationHandler<PreparedStatement>( st ) );
-      } else if ( o instanceof Statement ) {
-        Statement st = (Statement) o;
+    /**
+     * Remembers a setting of a pooled connection before its borrower changes it for the first time.
+     *
+     * @param proxy  the connection proxy
+     * @param action the action of the method
+     * @throws SQLException if the setting cannot be read
+     */
+    private void saveState( Connection proxy, Action action ) throws SQLException {
+      switch ( action ) {
+        case SET_AUTO_COMMIT:
+          state.saveAutoCommit( proxy );
+          break;
+        case SET_READ_ONLY:
+          state.saveReadOnly( proxy );
+          break;
+        case SET_CATALOG:
+          state.saveCatalog( proxy );
+          break;
+        case SET_SCHEMA:
+          state.saveSchema( proxy );
+          break;
+        default:
+          break;
+      }
+    }
 
-        // Intercept the Statement object so we can proxy that too
-        return Proxy.newProxyInstance( st.getClass().getClassLoader(),
-              new Class[]{Statement.class}, new CaptureResultSetInvocationHandler<Statement>( st ) );
-      } else {
-        return o;
+    /**
+     * Handles the methods that behave differently for pooled and shared connections: closing the connection returns it
+     * to the pool with the settings its borrower changed put back; aborting it, or closing it after a statement changed
+     * the Drill session or when a setting can't be put back, removes it from the pool. Closing or aborting a shared
+     * connection releases its use of the {@link DrillSharedConnection}.
+     *
+     * @param proxy  the connection proxy
+     * @param action the action of the method
+     * @param args   the args
+     * @return the result
+     * @throws SQLException if the connection state cannot be read
+     */
+    private Object invokePooled( Connection proxy, Action action, Object[] args ) throws SQLException {
+      switch ( action ) {
+        case CLOSE:
+        case ABORT:
+          if ( closed.get() ) {
+            return null;
+          }
+          // Put back while the proxy is still open, through its own setters
+          boolean restored = pool != null && action == Action.CLOSE && state.restore( proxy );
+          if ( closed.compareAndSet( false, true ) ) {
+            if ( pool == null ) {
+              DrillSharedConnection.release( connection );
+            } else if ( restored && !sessionChanged.get() ) {
+              pool.release( connection );
+            } else {
+              pool.discard( connection );
+            }
+          }
+          return null;
+        case IS_VALID:
+          return !closed.get() && connection.isValid( (Integer) args[0] );
+        default:
+          return closed.get() || connection.isClosed();
+      }
+    }
+
+    /**
+     * Returns the fallback result for a method the driver does not implement.
+     *
+     * @param action the action of the method
+     * @param args   the args
+     * @return the fallback result
+     * @throws SQLException if the fallback fails
+     */
+    private Object fallback( Action action, Object[] args ) throws SQLException {
+      switch ( action ) {
+        case CREATE_STATEMENT_WITH_TYPE:
+          return createStatement( connection, args );
+        case IS_READ_ONLY:
+          return Boolean.FALSE;
+        default:
+          // setReadOnly and setAutoCommit are ignored
+          return null;
       }
     }
 
@@ -249,6 +544,26 @@ public class DriverProxyInvocationChain {
    */
   private static class DatabaseMetaDataInvocationHandler implements InvocationHandler {
 
+    /**
+     * The actions taken for DatabaseMetaData methods
+     */
+    private enum Action {
+      FORWARD, GET_CONNECTION, GET_IDENTIFIER_QUOTE_STRING, RESULT_SET, CACHED_RESULT_SET, UNWRAP, IS_WRAPPER_FOR
+    }
+
+    private static final MethodDispatchTable<Action> DISPATCH =
+      new MethodDispatchTable<Action>( DatabaseMetaData.class, Action.FORWARD )
+        .map( Action.GET_CONNECTION, "getConnection" )
+        .map( Action.GET_IDENTIFIER_QUOTE_STRING, "getIdentifierQuoteString" )
+        .map( Action.UNWRAP, "unwrap", Class.class )
+        .map( Action.IS_WRAPPER_FOR, "isWrapperFor", Class.class )
+        .mapAll( Action.CACHED_RESULT_SET, "getTables" )
+        .mapAll( Action.CACHED_RESULT_SET, "getColumns" )
+        .mapAll( Action.CACHED_RESULT_SET, "getSchemas" )
+        .mapAll( Action.CACHED_RESULT_SET, "getCatalogs" )
+        .mapAll( Action.CACHED_RESULT_SET, "getTableTypes" )
+        .mapReturning( Action.RESULT_SET, ResultSet.class );
+
     /**
      * The "real" database metadata object.
      */
@@ -257,16 +572,45 @@ public class DriverProxyInvocationChain {
     /**
      * The connection proxy associated with the DatabaseMetaData object
      */
-    ConnectionInvocationHandler c;
+    Connection c;
+
+    /**
+     * The known capabilities of the Drill driver
+     */
+    DrillCapabilities capabilities;
+
+    /**
+     * The configuration of the connection
+     */
+    DrillConnectionConfig config;
+
+    /**
+     * The metadata cache of the connection, or null if the connection does not cache metadata
+     */
+    DrillMetadataCache metadataCache;
+
+    /**
+     * Runs the background metadata refreshes of the connection
+     */
+    DrillMetadataRefresher metadataRefresher;
 
     /**
      * Instantiates a new database meta data invocation handler.
      *
-     * @param t the database metadata object to proxy
+     * @param t                 the database metadata object to proxy
+     * @param c                 the connection proxy the metadata belongs to
+     * @param capabilities      the capabilities of the Drill driver
+     * @param config            the configuration of the connection
+     * @param metadataRefresher runs the background metadata refreshes of the connection
      */
-    public DatabaseMetaDataInvocationHandler( DatabaseMetaData t, ConnectionInvocationHandler c ) {
+    public DatabaseMetaDataInvocationHandler( DatabaseMetaData t, Connection c, DrillCapabilities capabilities,
+      DrillConnectionConfig config, DrillMetadataRefresher metadataRefresher ) {
       this.t = t;
       this.c = c;
+      this.capabilities = capabilities;
+      this.config = config;
+      this.metadataCache = DrillMetadataCache.forConfig( config );
+      this.metadataRefresher = metadataRefresher;
     }
 
     /**
@@ -282,34 +626,46 @@ public class DriverProxyInvocationChain {
     public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
 
       try {
-        String methodName = method.getName();
-        if ( "getConnection".equals( methodName ) ) {
-          // Return the connection
-          return c;
-        } else if ( "getIdentifierQuoteString".equals( methodName ) ) {
-          // Need to intercept getIdentifierQuoteString() before trying the driver version, as our "fixed"
-          // drivers return a single quote when it should be empty.
-          // TODO can we remove this?
-          return getIdentifierQuoteString();
-        }
-
-        // try to invoke the method as-is
-        Object o = method.invoke( t, args );
-        if ( o instanceof ResultSet ) {
-          ResultSet r = (ResultSet) o;
-
-          return Proxy.newProxyInstance( r.getClass().getClassLoader(),
-                new Class[]{ResultSet.class}, new ResultSetInvocationHandler( r ) );
-        } else {
-          return o;
-        }
-      } catch ( Throwable t ) {
-        if ( t instanceof InvocationTargetException ) {
-          Throwable cause = t.getCause();
-          throw cause;
-        } else {
-          throw t;
+        Action action = DISPATCH.get( method );
+        switch ( action ) {
+          case GET_CONNECTION:
+            // Return the connection
+            return c;
+          case GET_IDENTIFIER_QUOTE_STRING:
+            // Need to intercept getIdentifierQuoteString() before trying the driver version, as our "fixed"
+            // drivers return a single quote when it should be empty.
+            // TODO can we remove this?
+            return getIdentifierQuoteString();
+          case CACHED_RESULT_SET:
+          case RESULT_SET:
+            ResultSet r;
+            if ( action == Action.CACHED_RESULT_SET && metadataCache != null ) {
+              r = "getColumns".equals( method.getName() ) ? metadataCache.getColumns( t, metadataRefresher,
+                (String) args[0], (String) args[1], (String) args[2], (String) args[3] ) : null;
+              if ( r == null ) {
+                r = metadataCache.get( DrillMetadataCache.getKey( method.getName(), args ), getLoader( method, args ),
+                  metadataRefresher );
+              }
+            } else if ( action == Action.CACHED_RESULT_SET ) {
+              r = getLoader( method, args ).load();
+            } else {
+              r = (ResultSet) method.invoke( t, args );
+            }
+            if ( r == null ) {
+              return null;
+            }
+            return Proxy.newProxyInstance( r.getClass().getClassLoader(),
+                  new Class[]{ResultSet.class}, new ResultSetInvocationHandler( r, capabilities, config ) );
+          case UNWRAP:
+            return DrillWrappers.unwrap( proxy, t, (Class<?>) args[0] );
+          case IS_WRAPPER_FOR:
+            return DrillWrappers.isWrapperFor( proxy, t, (Class<?>) args[0] );
+          default:
+            // try to invoke the method as-is
+            return method.invoke( t, args );
         }
+      } catch ( InvocationTargetException ite ) {
+        throw ite.getCause();
       }
     }
 
@@ -323,6 +679,39 @@ public class DriverProxyInvocationChain {
       return "`";
     }
 
+    /**
+     * Returns the loader of a metadata listing, which filters getTables and getSchemas on the Drill side as
+     * configured.
+     *
+     * @param method the DatabaseMetaData method
+     * @param args   the arguments of the call
+     * @return the loader running the call
+     */
+    private DrillMetadataCache.Loader getLoader( final Method method, final Object[] args ) {
+      return new DrillMetadataCache.Loader() {
+        @Override
+        public ResultSet load() throws SQLException {
+          if ( "getTables".equals( method.getName() ) ) {
+            return DrillMetadataQueries.getTables( t, config, (String) args[0], (String) args[1], (String) args[2],
+              (String[]) args[3] );
+          } else if ( "getSchemas".equals( method.getName() ) ) {
+            return args == null || args.length == 0 ? DrillMetadataQueries.getSchemas( t, config, null, null )
+              : DrillMetadataQueries.getSchemas( t, config, (String) args[0], (String) args[1] );
+          }
+          try {
+            return (ResultSet) method.invoke( t, args );
+          } catch ( InvocationTargetException e ) {
+            if ( e.getCause() instanceof SQLException ) {
+              throw (SQLException) e.getCause();
+            }
+            throw new SQLException( e.getCause() );
+          } catch ( IllegalAccessException e ) {
+            throw new SQLException( e );
+          }
+        }
+      };
+    }
+
   }
 
   /**
@@ -334,18 +723,137 @@ public class DriverProxyInvocationChain {
    */
   private static class CaptureResultSetInvocationHandler<T extends Statement> implements InvocationHandler {
 
+    /**
+     * The actions taken for Statement and PreparedStatement methods
+     */
+    private enum Action {
+      FORWARD, RESULT_SET, UNWRAP, IS_WRAPPER_FOR, CLOSE, IS_CLOSED,
+      GET_META_DATA( Feature.PREPARED_STATEMENT_META_DATA ),
+      SET_OBJECT( Feature.SET_OBJECT ),
+      SET_NULL( Feature.SET_NULL );
+
+      /**
+       * The capability that decides whether the fallback is used, or null if there is no fallback
+       */
+      final Feature feature;
+
+      Action() {
+        this( null );
+      }
+
+      Action( Feature feature ) {
+        this.feature = feature;
+      }
+    }
+
+    private static final MethodDispatchTable<Action> STATEMENT_DISPATCH =
+      new MethodDispatchTable<Action>( Statement.class, Action.FORWARD )
+        .map( Action.UNWRAP, "unwrap", Class.class )
+        .map( Action.IS_WRAPPER_FOR, "isWrapperFor", Class.class )
+        .mapReturning( Action.RESULT_SET, ResultSet.class );
+
+    private static final MethodDispatchTable<Action> PREPARED_STATEMENT_DISPATCH =
+      new MethodDispatchTable<Action>( PreparedStatement.class, Action.FORWARD )
+        .map( Action.GET_META_DATA, "getMetaData" )
+        .map( Action.SET_OBJECT, "setObject", int.class, Object.class )
+        .map( Action.SET_NULL, "setNull", int.class, int.class )
+        .map( Action.CLOSE, "close" )
+        .map( Action.IS_CLOSED, "isClosed" )
+        .map( Action.UNWRAP, "unwrap", Class.class )
+        .map( Action.IS_WRAPPER_FOR, "isWrapperFor", Class.class )
+        .mapReturning( Action.RESULT_SET, ResultSet.class );
+
     /**
      * The object whose methods return ResultSet objects.
      */
     T t;
 
+    /**
+     * The dispatch table for the proxied interface
+     */
+    MethodDispatchTable<Action> dispatch;
+
+    /**
+     * The last Drill ResultSetMetaData that was proxied, and its proxy
+     */
+    ResultSetMetaData rawMetaData;
+    Object metaData;
+
+    /**
+     * The last Drill ResultSet that was proxied, and its proxy
+     */
+    ResultSet rawResultSet;
+    Object resultSet;
+
+    /**
+     * The known capabilities of the Drill driver
+     */
+    DrillCapabilities capabilities;
+
+    /**
+     * The configuration of the connection
+     */
+    DrillConnectionConfig config;
+
+    /**
+     * The statement cache of the connection and the key of the statement in it, or null if the statement is not cached
+     */
+    DrillStatementCache statementCache;
+    List<Object> cacheKey;
+
+    /**
+     * Whether a cached statement has been closed; its Drill statement may have gone back to the statement cache
+     */
+    volatile boolean closed;
+
+    /**
+     * The SQL text of a prepared statement, or null if it is not known
+     */
+    String sql;
+
+    /**
+     * Set when SQL run on the connection changes the Drill session, or null if it is not tracked
+     */
+    AtomicBoolean sessionChanged;
+
     /**
      * Instantiates a new capture result set invocation handler.
      *
-     * @param t the t
+     * @param t            the t
+     * @param intf         the interface being proxied
+     * @param capabilities the capabilities of the Drill driver
+     * @param config       the configuration of the connection
      */
-    public CaptureResultSetInvocationHandler( T t ) {
+    public CaptureResultSetInvocationHandler( T t, Class<T> intf, DrillCapabilities capabilities,
+      DrillConnectionConfig config ) {
+      this( t, intf, capabilities, config, null, null, null, null );
+    }
+
+    /**
+     * Instantiates a new capture result set invocation handler for a statement that goes back to the statement cache
+     * when it is closed.
+     *
+     * @param t              the t
+     * @param intf           the interface being proxied
+     * @param capabilities   the capabilities of the Drill driver
+     * @param config         the configuration of the connection
+     * @param statementCache the statement cache of the connection, or null
+     * @param cacheKey       the key of the statement in the statement cache, or null if it is not cached
+     * @param sql            the SQL text of a prepared statement, or null if it is not known
+     * @param sessionChanged set when SQL run on the connection changes the Drill session, or null if it is not tracked
+     */
+    public CaptureResultSetInvocationHandler( T t, Class<T> intf, DrillCapabilities capabilities,
+      DrillConnectionConfig config, DrillStatementCache statementCache, List<Object> cacheKey, String sql,
+      AtomicBoolean sessionChanged ) {
       this.t = t;
+      this.sql = sql;
+      this.sessionChanged = sessionChanged;
+      this.statementCache = statementCache;
+      this.cacheKey = cacheKey;
+      this.capabilities = capabilities;
+      this.config = config;
+      this.dispatch =
+        PreparedStatement.class.isAssignableFrom( intf ) ? PREPARED_STATEMENT_DISPATCH : STATEMENT_DISPATCH;
     }
 
     /**
@@ -359,77 +867,177 @@ public class DriverProxyInvocationChain {
      */
     @Override
     public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      Action action = dispatch.get( method );
+      if ( action == Action.UNWRAP ) {
+        return DrillWrappers.unwrap( proxy, t, (Class<?>) args[0] );
+      } else if ( action == Action.IS_WRAPPER_FOR ) {
+        return DrillWrappers.isWrapperFor( proxy, t, (Class<?>) args[0] );
+      } else if ( cacheKey != null && action == Action.CLOSE ) {
+        close();
+        return null;
+      } else if ( cacheKey != null && action == Action.IS_CLOSED ) {
+        return closed || t.isClosed();
+      } else if ( closed ) {
+        // The Drill statement may belong to another user by now
+        throw new SQLException( "Statement is closed" );
+      } else if ( action == Action.GET_META_DATA && sql != null
+        && ( sessionChanged == null || !sessionChanged.get() ) ) {
+        // A USE statement changes the current schema without the driver knowing, so the layouts are not cached then
+        DrillMetadataCache metadataCache = DrillMetadataCache.forConfig( config );
+        if ( metadataCache != null ) {
+          return getCachedMetaData( metadataCache, proxy, method, args );
+        }
+      } else if ( sessionChanged != null && args != null && args.length > 0 && args[0] instanceof String
+        && DrillSessionOptions.changesSession( (String) args[0] ) ) {
+        // execute, executeQuery, executeUpdate or addBatch with a statement that changes the session
+        sessionChanged.set( true );
+      }
+      return invokeDriver( proxy, method, args, action );
+    }
+
+    /**
+     * Returns the metadata of a prepared statement from the layout cache, asking the driver and caching its answer if
+     * the layout of the query is not cached yet.
+     *
+     * @param metadataCache the metadata cache of the connection
+     * @param proxy         the prepared statement proxy
+     * @param method        the getMetaData method
+     * @param args          the args
+     * @return the metadata proxy, or null if there is no metadata
+     * @throws Throwable if the driver fails
+     */
+    private Object getCachedMetaData( DrillMetadataCache metadataCache, Object proxy, Method method, Object[] args )
+      throws Throwable {
+      String schema = DrillMetadataCache.getSchema( t.getConnection() );
+      DrillQueryLayout layout = metadataCache.getLayout( sql, schema, config.getSessionOptions() );
+      if ( layout != null ) {
+        return getProxiedObject( layout );
+      }
+      Object o = invokeDriver( proxy, method, args, Action.GET_META_DATA );
+      if ( o != null ) {
+        // rawMetaData is the driver's metadata behind the proxy that was just returned
+        metadataCache.putLayout( sql, schema, config.getSessionOptions(), rawMetaData );
+      }
+      return o;
+    }
+
+    /**
+     * Calls a method on the Drill object, or its fallback if the driver does not implement it.
+     *
+     * @param proxy  the proxy
+     * @param method the method
+     * @param args   the args
+     * @param action the action of the method
+     * @return the object
+     * @throws Throwable the throwable
+     */
+    private Object invokeDriver( Object proxy, Method method, Object[] args, Action action ) throws Throwable {
+      if ( action.feature != null && !capabilities.isSupported( action.feature ) ) {
+        return fallback( (PreparedStatement) proxy, action, args );
+      }
       // try to invoke the method as-is
       try {
-        return getProxiedObject( method.invoke( t, args ) );
+        Object o = method.invoke( t, args );
+        if ( action == Action.GET_META_DATA && ( o == null || ( (ResultSetMetaData) o ).getColumnCount() == 0 ) ) {
+          // some drivers return no metadata or, like Drill before 1.8, a layout without columns instead of throwing
+          return fallback( (PreparedStatement) proxy, action, args );
+        }
+        return action == Action.FORWARD ? o : getProxiedObject( o );
       } catch ( InvocationTargetException ite ) {
         Throwable cause = ite.getCause();
 
-        if ( cause instanceof SQLException ) {
-          if ( cause.getMessage().equals( "Method not supported" ) ) {
-            String methodName = method.getName();
-            // Intercept PreparedStatement.getMetaData() to see if it throws an exception
-            if ( "getMetaData".equals( methodName ) && (args == null || args.length == 0) ) {
-              return getProxiedObject( getMetaData() );
-            } else if ( PreparedStatement.class.isInstance( proxy ) && "setObject".equals( methodName )
-                  && args.length == 2 && Integer.class.isInstance( args[0] ) ) {
-              // Intercept PreparedStatement.setObject(position, value)
-              // Set value using value type instead
-              // TODO do we need this? Or does Drill insulate us from Hive (specifically older Hive versions)?
-              PreparedStatement ps = (PreparedStatement) proxy;
-              int parameterIndex = (Integer) args[0];
-              Object x = args[1];
-
-              if ( x == null ) {
-                // PreparedStatement.setNull may not be supported
-                ps.setNull( parameterIndex, Types.NULL );
-              } else if ( x instanceof String ) {
-                ps.setString( parameterIndex, (String) x );
-              } else if ( x instanceof Short ) {
-                ps.setShort( parameterIndex, ((Short) x).shortValue() );
-              } else if ( x instanceof Integer ) {
-                ps.setInt( parameterIndex, ((Integer) x).intValue() );
-              } else if ( x instanceof Long ) {
-                ps.setLong( parameterIndex, ((Long) x).longValue() );
-              } else if ( x instanceof Float ) {
-                ps.setFloat( parameterIndex, ((Float) x).floatValue() );
-              } else if ( x instanceof Double ) {
-                ps.setDouble( parameterIndex, ((Double) x).doubleValue() );
-              } else if ( x instanceof Boolean ) {
-                ps.setBoolean( parameterIndex, ((Boolean) x).booleanValue() );
-              } else if ( x instanceof Byte ) {
-                ps.setByte( parameterIndex, ((Byte) x).byteValue() );
-              } else if ( x instanceof Character ) {
-                ps.setString( parameterIndex, x.toString() );
-              } else {
-                // Can't infer a type.
-                throw new SQLException( "Type " + x.getClass() + " is not yet supported", cause );
-              }
-              return null;
-            } else if ( PreparedStatement.class.isInstance( proxy ) && "setNull".equals( methodName )
-                  && args.length == 2 && Integer.class.isInstance( args[0] ) ) {
+        if ( action.feature != null && cause instanceof SQLException
+          && capabilities.recordFailure( action.feature, (SQLException) cause ) ) {
+          return fallback( (PreparedStatement) proxy, action, args );
+        }
+        throw cause;
+      }
+    }
 
-              PreparedStatement ps = (PreparedStatement) proxy;
-              int parameterIndex = (Integer) args[0];
-              // Use empty String instead (not ideal, but won't crash)
-              ps.setString( parameterIndex, "" );
+    /**
+     * Returns the Drill statement of a cached statement to the statement cache (see
+     * {@link DrillStatementCache#release}), or closes it if it can't be reused. The proxy stays closed: the connection
+     * hands out a new proxy when it takes the statement out again.
+     *
+     * @throws SQLException if the statement cannot be closed
+     */
+    private void close() throws SQLException {
+      if ( closed ) {
+        return;
+      }
+      closed = true;
+      if ( !statementCache.release( cacheKey, (PreparedStatement) t ) ) {
+        t.close();
+      }
+    }
 
-              return null;
-            } else {
-              throw cause;
-            }
-          } else {
-            throw cause;
-          }
-        } else {
-          throw cause;
-        }
+    /**
+     * Returns the fallback result for a PreparedStatement method the driver does not implement.
+     *
+     * @param ps     the prepared statement proxy
+     * @param action the action of the method
+     * @param args   the args
+     * @return the fallback result
+     * @throws SQLException if the fallback fails
+     */
+    private Object fallback( PreparedStatement ps, Action action, Object[] args ) throws SQLException {
+      switch ( action ) {
+        case GET_META_DATA:
+          // Intercept PreparedStatement.getMetaData() to see if it throws an exception
+          return getProxiedObject( getMetaData() );
+        case SET_OBJECT:
+          // Intercept PreparedStatement.setObject(position, value)
+          // Set value using value type instead
+          // TODO do we need this? Or does Drill insulate us from Hive (specifically older Hive versions)?
+          setObject( ps, (Integer) args[0], args[1] );
+          return null;
+        default:
+          // Use empty String instead of setNull (not ideal, but won't crash)
+          ps.setString( (Integer) args[0], "" );
+          return null;
       }
     }
 
     /**
-     * Returns the result set meta data.  If a result set was not created by running an execute or executeQuery then a
-     * null is returned.
+     * Sets a parameter using the setter matching the value's type.
+     *
+     * @param ps             the prepared statement proxy
+     * @param parameterIndex the parameter index
+     * @param x              the value
+     * @throws SQLException if the value type is not supported
+     */
+    private void setObject( PreparedStatement ps, int parameterIndex, Object x ) throws SQLException {
+      if ( x == null ) {
+        // PreparedStatement.setNull may not be supported
+        ps.setNull( parameterIndex, Types.NULL );
+      } else if ( x instanceof String ) {
+        ps.setString( parameterIndex, (String) x );
+      } else if ( x instanceof Short ) {
+        ps.setShort( parameterIndex, ((Short) x).shortValue() );
+      } else if ( x instanceof Integer ) {
+        ps.setInt( parameterIndex, ((Integer) x).intValue() );
+      } else if ( x instanceof Long ) {
+        ps.setLong( parameterIndex, ((Long) x).longValue() );
+      } else if ( x instanceof Float ) {
+        ps.setFloat( parameterIndex, ((Float) x).floatValue() );
+      } else if ( x instanceof Double ) {
+        ps.setDouble( parameterIndex, ((Double) x).doubleValue() );
+      } else if ( x instanceof Boolean ) {
+        ps.setBoolean( parameterIndex, ((Boolean) x).booleanValue() );
+      } else if ( x instanceof Byte ) {
+        ps.setByte( parameterIndex, ((Byte) x).byteValue() );
+      } else if ( x instanceof Character ) {
+        ps.setString( parameterIndex, x.toString() );
+      } else {
+        // Can't infer a type.
+        throw new SQLException( "Type " + x.getClass() + " is not yet supported" );
+      }
+    }
+
+    /**
+     * Returns the result set meta data.  If a result set was not created by running an execute or executeQuery, the
+     * layout is read with a zero-row probe of the statement's query (see {@link DrillQueryLayout}), and if that is not
+     * possible either then a null is returned.
      *
      * @return null is returned if the result set is null
      * @throws SQLException if an error occurs while getting metadata
@@ -442,6 +1050,9 @@ public class DriverProxyInvocationChain {
         try {
           ResultSet resultSet = ((Statement) t).getResultSet();
           rsmd = (resultSet == null ? null : resultSet.getMetaData());
+          if ( rsmd == null && sql != null ) {
+            rsmd = DrillQueryLayout.probe( t.getConnection(), sql );
+          }
         } catch ( SQLException se ) {
           rsmd = null;
         }
@@ -449,7 +1060,7 @@ public class DriverProxyInvocationChain {
       return rsmd;
     }
 
-    private Object getProxiedObject( Object o ) {
+    private Object getProxiedObject( Object o ) throws SQLException {
       if ( o == null ) {
         return null;
       }
@@ -457,13 +1068,24 @@ public class DriverProxyInvocationChain {
       if ( o instanceof ResultSet ) {
         ResultSet r = (ResultSet) o;
 
-        return Proxy.newProxyInstance( r.getClass().getClassLoader(),
-              new Class[]{ResultSet.class}, new ResultSetInvocationHandler( r, t ) );
+        // getResultSet is called more than once for a result, so reuse the proxy while Drill returns the same one
+        if ( r != rawResultSet ) {
+          resultSet = Proxy.newProxyInstance( r.getClass().getClassLoader(),
+                new Class[]{ResultSet.class}, new ResultSetInvocationHandler( r, t, capabilities, config ) );
+          rawResultSet = r;
+        }
+        return resultSet;
       } else if ( o instanceof ResultSetMetaData ) {
         ResultSetMetaData r = (ResultSetMetaData) o;
 
-        return Proxy.newProxyInstance( r.getClass().getClassLoader(),
-              new Class[]{ResultSetMetaData.class}, new ResultSetMetaDataInvocationHandler( r ) );
+        // Drill hands out the same metadata object for the same result set, so reuse the proxy as long as it does
+        if ( r != rawMetaData ) {
+          metaData = Proxy.newProxyInstance( r.getClass().getClassLoader(),
+                new Class[]{ResultSetMetaData.class},
+                new ResultSetMetaDataInvocationHandler( r, capabilities, config ) );
+          rawMetaData = r;
+        }
+        return metaData;
       } else {
         return o;
       }
@@ -477,29 +1099,86 @@ public class DriverProxyInvocationChain {
    */
   private static class ResultSetInvocationHandler implements InvocationHandler {
 
+    /**
+     * The actions taken for ResultSet methods
+     */
+    private enum Action {
+      FORWARD, FIND_COLUMN, GET_STRING_BY_LABEL, GET_TYPE, GET_META_DATA, GET_STATEMENT, GET_BOOLEAN_BY_INDEX,
+      GET_BOOLEAN_BY_LABEL, GET_LONG_BY_INDEX, GET_LONG_BY_LABEL, CLOSE, UNWRAP, IS_WRAPPER_FOR
+    }
+
+    private static final MethodDispatchTable<Action> DISPATCH =
+      new MethodDispatchTable<Action>( ResultSet.class, Action.FORWARD )
+        .map( Action.FIND_COLUMN, "findColumn", String.class )
+        .map( Action.GET_STRING_BY_LABEL, "getString", String.class )
+        .map( Action.GET_TYPE, "getType" )
+        .map( Action.GET_META_DATA, "getMetaData" )
+        .map( Action.GET_STATEMENT, "getStatement" )
+        .map( Action.GET_BOOLEAN_BY_INDEX, "getBoolean", int.class )
+        .map( Action.GET_BOOLEAN_BY_LABEL, "getBoolean", String.class )
+        .map( Action.GET_LONG_BY_INDEX, "getLong", int.class )
+        .map( Action.GET_LONG_BY_LABEL, "getLong", String.class )
+        .map( Action.CLOSE, "close" )
+        .map( Action.UNWRAP, "unwrap", Class.class )
+        .map( Action.IS_WRAPPER_FOR, "isWrapperFor", Class.class );
+
     /**
      * The "real" ResultSet object .
      */
     ResultSet rs;
     Statement st;
 
+    /**
+     * The proxied metadata of the result set, created on first use
+     */
+    ResultSetMetaData metaData;
+
+    /**
+     * The column information of the result set, read along with the metadata
+     */
+    DrillResultSetColumns columns;
+
+    /**
+     * The primitive column reader, created along with the metadata
+     */
+    DrillResultSetReader reader;
+
+    /**
+     * The known capabilities of the Drill driver
+     */
+    DrillCapabilities capabilities;
+
+    /**
+     * The configuration of the connection
+     */
+    DrillConnectionConfig config;
+
     /**
      * Instantiates a new result set invocation handler.
      *
-     * @param r the r
+     * @param r            the r
+     * @param capabilities the capabilities of the Drill driver
+     * @param config       the configuration of the connection
      */
-    public ResultSetInvocationHandler( ResultSet r ) {
-      rs = r;
+    public ResultSetInvocationHandler( ResultSet r, DrillCapabilities capabilities,
+      DrillConnectionConfig config ) {
+      this( r, null, capabilities, config );
     }
 
     /**
      * Instantiates a new result set invocation handler.
      *
-     * @param r the r
+     * @param r            the r
+     * @param s            the statement that produced the result set
+     * @param capabilities the capabilities of the Drill driver
+     * @param config       the configuration of the connection
      */
-    public ResultSetInvocationHandler( ResultSet r, Statement s ) {
+    public ResultSetInvocationHandler( ResultSet r, Statement s, DrillCapabilities capabilities,
+      DrillConnectionConfig config ) {
       rs = r;
       st = s;
+      this.capabilities = capabilities;
+      this.config = config;
     }
 
     /**
@@ -513,73 +1192,54 @@ public class DriverProxyInvocationChain {
      */
     @Override
     public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
-
+      Action action = DISPATCH.get( method );
       try {
-        String methodName = method.getName();
-
-        // Intercept the getString(String) method to implement the hack for "show tables" vs. getTables()
-        if ( "getString".equals( methodName ) && args != null && args.length == 1 && args[0] instanceof String ) {
-          return getString( (String) args[0] );
-        } else if ( "getType".equals( methodName ) ) {
-          // Return TYPE_FORWARD_ONLY (scrollability is not really supported)
-          return ResultSet.TYPE_FORWARD_ONLY;
-        } else {
-          Object o = method.invoke( rs, args );
-
-          if ( o instanceof ResultSetMetaData ) {
-            // Intercept the ResultSetMetaData object so we can proxy that too
-            return (ResultSetMetaData) Proxy.newProxyInstance( o.getClass().getClassLoader(),
-                  new Class[]{ResultSetMetaData.class},
-                  new ResultSetMetaDataInvocationHandler( (ResultSetMetaData) o ) );
-          } else {
-            return o;
-          }
+        switch ( action ) {
+          case FIND_COLUMN:
+            return findColumn( (String) args[0] );
+          case GET_STRING_BY_LABEL:
+            // Intercept the getString(String) method to implement the hack for "show tables" vs. getTables()
+            return getString( (String) args[0] );
+          case GET_BOOLEAN_BY_INDEX:
+            getMetaData();
+            return reader.readBoolean( (Integer) args[0] );
+          case GET_BOOLEAN_BY_LABEL:
+            return reader.readBoolean( findColumn( (String) args[0] ) );
+          case GET_LONG_BY_INDEX:
+            getMetaData();
+            return reader.readLong( (Integer) args[0] );
+          case GET_LONG_BY_LABEL:
+            return reader.readLong( findColumn( (String) args[0] ) );
+          case UNWRAP:
+            if ( args[0] == DrillColumnReader.class ) {
+              getMetaData();
+              return reader;
+            }
+            return DrillWrappers.unwrap( proxy, rs, (Class<?>) args[0] );
+          case IS_WRAPPER_FOR:
+            return args[0] == DrillColumnReader.class || DrillWrappers.isWrapperFor( proxy, rs, (Class<?>) args[0] );
+          case GET_TYPE:
+            // Return TYPE_FORWARD_ONLY (scrollability is not really supported)
+            return ResultSet.TYPE_FORWARD_ONLY;
+          case GET_META_DATA:
+            return getMetaData();
+          default:
+            return method.invoke( rs, args );
         }
-      } catch ( Throwable t ) {
+      } catch ( InvocationTargetException ite ) {
+        Throwable cause = ite.getCause();
 
-        if ( t instanceof InvocationTargetException ) {
-          Throwable cause = t.getCause();
-          String methodName = method.getName();
-
-          if ( cause instanceof SQLException ) {
-            String message = cause.getMessage();
-            if ( message.startsWith( "Method not supported" ) ) {
-              if ( "getStatement".equals( methodName ) ) {
-                return getStatement();
-              } else {
-                throw cause;
-              }
-            } else if ( message.startsWith( "Requesting class of type " ) ) {
-              // This is a Drill exception but we can't currently access the exception class, so just check the
-              // message.
-              if ( methodName.equals( "getBoolean" ) && args != null && args.length == 1 ) {
-                if ( Integer.TYPE.isAssignableFrom( method.getParameterTypes()[0] ) ) {
-                  return rs.getInt( (Integer) args[0] ) == 0 ? false : true;
-                } else if ( String.class.isAssignableFrom( method.getParameterTypes()[0] ) ) {
-                  return rs.getInt( (String) args[0] ) == 0 ? false : true;
-                }
-              }
-              if ( methodName.equals( "getLong" ) && args != null && args.length == 1 ) {
-                if ( Integer.TYPE.isAssignableFrom( method.getParameterTypes()[0] ) ) {
-                  return (long) rs.getInt( (Integer) args[0] );
-                } else if ( String.class.isAssignableFrom( method.getParameterTypes()[0] ) ) {
-                  return (long) rs.getInt( (String) args[0] );
-                }
-              }
-              throw cause;
-            } else {
-              throw cause;
-            }
-          } else if ( cause instanceof IllegalMonitorStateException && "close".equals( methodName ) ) {
-            // Workaround for BISERVER-11782. By this moment invocation of closeClientOperation did it's job and failed
-            // trying to unlock not locked lock, just ignore this.
-            return null;
-          } else {
-            throw cause;
+        if ( cause instanceof SQLException ) {
+          SQLException se = (SQLException) cause;
+          if ( DrillSqlExceptions.isMethodNotSupported( se ) && action == Action.GET_STATEMENT ) {
+            return getStatement();
           }
-        } else {
-          throw t;
+        } else if ( cause instanceof IllegalMonitorStateException && action == Action.CLOSE ) {
+          // Workaround for BISERVER-11782. By this moment invocation of closeClientOperation did it's job and failed
+          // trying to unlock not locked lock, just ignore this.
+          return null;
         }
+        throw cause;
       }
     }
 
@@ -587,38 +1247,56 @@ public class DriverProxyInvocationChain {
       return st;
     }
 
+    /**
+     * Intercepts the ResultSetMetaData object so we can proxy that too, once per result set.
+     */
+    private ResultSetMetaData getMetaData() throws SQLException {
+      if ( metaData == null ) {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        ResultSetMetaDataInvocationHandler handler =
+          new ResultSetMetaDataInvocationHandler( rsmd, capabilities, config );
+        metaData = (ResultSetMetaData) Proxy.newProxyInstance( rsmd.getClass().getClassLoader(),
+              new Class[]{ResultSetMetaData.class}, handler );
+        columns = handler.columns;
+        reader = new DrillResultSetReader( rs, columns );
+      }
+      return metaData;
+    }
+
+    /**
+     * Returns the index of the column with the specified label, looked up in the column information instead of
+     * asking Drill for every row.
+     *
+     * @param columnLabel the column label
+     * @return the column index
+     * @throws SQLException if there is no column with the label
+     */
+    private int findColumn( String columnLabel ) throws SQLException {
+      getMetaData();
+      int columnIndex = columns.indexOf( columnLabel );
+      return columnIndex > 0 ? columnIndex : rs.findColumn( columnLabel );
+    }
+
     /**
      * Gets the string value from the current row at the column with the specified name.
      *
      * @param columnName the column name
-     * @return the string value of the row at the column with the specified name
-     * @throws SQLException if the column name cannot be found
+     * @return the string value of the row at the column with the specified name, or null if no column has that name
+     * @throws SQLException if the column information cannot be read
      */
     public String getString( String columnName ) throws SQLException {
-
-      String columnVal = null;
-      Throwable exception = null;
-      try {
-        columnVal = rs.getString( columnName );
-      } catch ( Throwable t ) {
-        // Save for returning later
-        exception = t;
-      }
-      if ( columnVal != null ) {
-        return columnVal;
+      // Look the name up in the column information first, Drill's own lookup does not always find it
+      getMetaData();
+      int columnIndex = columns.indexOf( columnName );
+      if ( columnIndex > 0 ) {
+        return rs.getString( columnIndex );
       }
-      // getString() didn't work, let's try searching the columns for the name
-      ResultSetMetaData rsmd = rs.getMetaData();
-      int colCount = rsmd.getColumnCount();
-      int i = 1;
-      while ( i <= colCount && !rsmd.getColumnName( i ).equals( columnName ) ) {
-        i++;
-      }
-      if ( i <= colCount ) {
-        columnVal = rs.getString( i );
+      try {
+        return rs.getString( columnName );
+      } catch ( SQLException e ) {
+        // No column has that name
+        return null;
       }
-
-      return columnVal;
     }
   }
 
@@ -629,18 +1307,57 @@ public class DriverProxyInvocationChain {
    */
   private static class ResultSetMetaDataInvocationHandler implements InvocationHandler {
 
+    /**
+     * The actions taken for ResultSetMetaData methods
+     */
+    private enum Action {
+      FORWARD, GET_COLUMN_COUNT, GET_COLUMN_NAME, GET_COLUMN_LABEL, GET_COLUMN_TYPE, IS_SIGNED, UNWRAP, IS_WRAPPER_FOR
+    }
+
+    private static final MethodDispatchTable<Action> DISPATCH =
+      new MethodDispatchTable<Action>( ResultSetMetaData.class, Action.FORWARD )
+        .map( Action.GET_COLUMN_COUNT, "getColumnCount" )
+        .map( Action.GET_COLUMN_NAME, "getColumnName", int.class )
+        .map( Action.GET_COLUMN_LABEL, "getColumnLabel", int.class )
+        .map( Action.GET_COLUMN_TYPE, "getColumnType", int.class )
+        .map( Action.IS_SIGNED, "isSigned", int.class )
+        .map( Action.UNWRAP, "unwrap", Class.class )
+        .map( Action.IS_WRAPPER_FOR, "isWrapperFor", Class.class );
+
     /**
      * The "real" ResultSetMetaData object.
      */
     ResultSetMetaData rsmd;
 
+    /**
+     * The known capabilities of the Drill driver
+     */
+    DrillCapabilities capabilities;
+
+    /**
+     * The configuration of the connection
+     */
+    DrillConnectionConfig config;
+
+    /**
+     * The column information, read once when the handler is created
+     */
+    DrillResultSetColumns columns;
+
     /**
      * Instantiates a new result set meta data invocation handler.
      *
-     * @param r the r
+     * @param r            the r
+     * @param capabilities the capabilities of the Drill driver
+     * @param config       the configuration of the connection
+     * @throws SQLException if the column information cannot be read
      */
-    public ResultSetMetaDataInvocationHandler( ResultSetMetaData r ) {
+    public ResultSetMetaDataInvocationHandler( ResultSetMetaData r, DrillCapabilities capabilities,
+      DrillConnectionConfig config ) throws SQLException {
       rsmd = r;
+      this.capabilities = capabilities;
+      this.config = config;
+      this.columns = new DrillResultSetColumns( r, capabilities, config.getColumnNaming() );
     }
 
     /**
@@ -654,76 +1371,54 @@ public class DriverProxyInvocationChain {
      */
     @Override
     public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
-      try {
-        String methodName = method.getName();
-        if ( ("getColumnName".equals( methodName ) || ("getColumnLabel".equals( methodName ))) && (args != null) && (args.length == 1) ) {
-          return getColumnName( (Integer) args[0] );
-        }
-        return method.invoke( this.rsmd, args );
-      } catch ( Throwable t ) {
-        if ( (t instanceof InvocationTargetException) ) {
-          Throwable cause = t.getCause();
-          if ( (cause instanceof SQLException) ) {
-            if ( cause.getMessage().equals( "Method not supported" ) ) {
-              String methodName = method.getName();
-              if ( "isSigned".equals( methodName ) ) {
-                if ( args != null ) {
-                  return isSigned( (Integer) args[0] );
-                }
-              }
-              throw cause;
-            }
-            throw cause;
-          }
-          throw cause;
-        }
-        throw t;
-      }
-    }
-
-    private String getColumnName( Integer column ) throws SQLException {
-      String columnName = null;
-      columnName = this.rsmd.getColumnName( column );
-      if ( columnName != null ) {
-        int dotIndex = columnName.indexOf( '.' );
-        if ( dotIndex != -1 ) {
-          return columnName.substring( dotIndex + 1 );
-        }
+      switch ( DISPATCH.get( method ) ) {
+        case GET_COLUMN_COUNT:
+          return columns.count;
+        case GET_COLUMN_NAME:
+          return getColumnValue( columns.names, (Integer) args[0], method );
+        case GET_COLUMN_LABEL:
+          return getColumnValue( columns.labels, (Integer) args[0], method );
+        case GET_COLUMN_TYPE:
+          int column = (Integer) args[0];
+          return columns.isValid( column ) ? columns.types[column] : forward( method, args );
+        case IS_SIGNED:
+          return isSigned( (Integer) args[0] );
+        case UNWRAP:
+          return DrillWrappers.unwrap( proxy, rsmd, (Class<?>) args[0] );
+        case IS_WRAPPER_FOR:
+          return DrillWrappers.isWrapperFor( proxy, rsmd, (Class<?>) args[0] );
+        default:
+          return forward( method, args );
       }
-      return columnName;
     }
 
     /**
      * Returns a true if values in the column are signed, false if not.
-     * <p/>
-     * This method checks the type of the passed column.  If that type is not numerical, then the result is false. If
-     * the type is a numeric then a true is returned.
      *
      * @param column the index of the column to test
      * @return boolean
-     * @throws SQLException the sQL exception
+     * @throws SQLException if the column index is out of range
      */
     public boolean isSigned( int column ) throws SQLException {
-      int numCols = rsmd.getColumnCount();
-
-      if ( column < 1 || column > numCols ) {
+      if ( !columns.isValid( column ) ) {
         throw new SQLException( "Invalid column value: " + column );
       }
+      return columns.isSigned( column );
+    }
+
+    private Object getColumnValue( Object[] values, Integer column, Method method ) throws Throwable {
+      if ( columns.isValid( column ) ) {
+        return values[column];
+      }
+      return forward( method, new Object[]{ column } );
+    }
 
-      // we need to convert the thrift type to the SQL type
-      int type = rsmd.getColumnType( column );
-      switch ( type ) {
-        case Types.DOUBLE:
-        case Types.DECIMAL:
-        case Types.FLOAT:
-        case Types.INTEGER:
-        case Types.REAL:
-        case Types.SMALLINT:
-        case Types.TINYINT:
-        case Types.BIGINT:
-          return true;
-      }
-      return false;
+    private Object forward( Method method, Object[] args ) throws Throwable {
+      try {
+        return method.invoke( this.rsmd, args );
+      } catch ( InvocationTargetException ite ) {
+        throw ite.getCause();
+      }
     }
   }
 
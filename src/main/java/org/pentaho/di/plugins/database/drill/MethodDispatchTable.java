@@ -0,0 +1,119 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * MethodDispatchTable maps the methods of a JDBC interface to the action an invocation handler should take for them,
+ * so handlers don't need to compare method names on every call. The table is filled once per interface from the
+ * interface's methods; lookups are made by identity on the Method objects a proxy class passes to its handler, which
+ * are the same instances on every call. Any method that was not mapped resolves to the default action.
+ *
+ * @param <E> the enum of actions the handler knows about
+ */
+final class MethodDispatchTable<E extends Enum<E>> {
+
+  /**
+   * The interface whose methods are dispatched
+   */
+  private final Class<?> intf;
+
+  /**
+   * The action for methods that were not mapped
+   */
+  private final E defaultAction;
+
+  /**
+   * The mapped actions, keyed by Method equality
+   */
+  private final Map<Method, E> actions = new HashMap<Method, E>();
+
+  /**
+   * The actions of Method instances seen so far, keyed by identity. Copied on write so lookups need no locking.
+   */
+  private volatile Map<Method, E> resolved = new IdentityHashMap<Method, E>();
+
+  /**
+   * Creates a dispatch table for the given interface.
+   *
+   * @param intf          the interface whose methods are dispatched
+   * @param defaultAction the action for methods that are not mapped
+   */
+  MethodDispatchTable( Class<?> intf, E defaultAction ) {
+    this.intf = intf;
+    this.defaultAction = defaultAction;
+  }
+
+  /**
+   * Maps a single method of the interface to an action.
+   *
+   * @param action         the action
+   * @param name           the method name
+   * @param parameterTypes the parameter types of the method
+   * @return this table
+   */
+  MethodDispatchTable<E> map( E action, String name, Class<?>... parameterTypes ) {
+    try {
+      actions.put( intf.getMethod( name, parameterTypes ), action );
+    } catch ( NoSuchMethodException e ) {
+      throw new IllegalArgumentException( intf.getName() + " has no method " + name, e );
+    }
+    return this;
+  }
+
+  /**
+   * Maps every overload of a method of the interface to an action.
+   *
+   * @param action the action
+   * @param name   the method name
+   * @return this table
+   */
+  MethodDispatchTable<E> mapAll( E action, String name ) {
+    for ( Method method : intf.getMethods() ) {
+      if ( method.getName().equals( name ) ) {
+        actions.put( method, action );
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Maps every method of the interface with the given return type (and not mapped yet) to an action.
+   *
+   * @param action     the action
+   * @param returnType the return type
+   * @return this table
+   */
+  MethodDispatchTable<E> mapReturning( E action, Class<?> returnType ) {
+    for ( Method method : intf.getMethods() ) {
+      if ( method.getReturnType() == returnType && !actions.containsKey( method ) ) {
+        actions.put( method, action );
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Returns the action for a method.
+   *
+   * @param method the method passed to the invocation handler
+   * @return the mapped action, or the default action
+   */
+  E get( Method method ) {
+    E action = resolved.get( method );
+    return action != null ? action : resolve( method );
+  }
+
+  private synchronized E resolve( Method method ) {
+    E action = actions.get( method );
+    if ( action == null ) {
+      action = defaultAction;
+    }
+    Map<Method, E> copy = new IdentityHashMap<Method, E>( resolved );
+    copy.put( method, action );
+    resolved = copy;
+    return action;
+  }
+}
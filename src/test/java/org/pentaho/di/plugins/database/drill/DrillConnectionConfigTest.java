@@ -0,0 +1,108 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DrillConnectionConfigTest {
+
+  @Test
+  public void testUrlWithoutOptions() throws Exception {
+    String url = "jdbc:drill:zk=local;schema=dfs";
+    Properties info = new Properties();
+    info.setProperty( "user", "drill" );
+    DrillConnectionConfig config = DrillConnectionConfig.parse( url, info );
+    assertSame( url, config.getUrl() );
+    assertSame( info, config.getInfo() );
+    assertEquals( DrillConnectionConfig.ColumnNaming.STRIP, config.getColumnNaming() );
+    assertFalse( config.isPooled() );
+    assertEquals( 0, config.getStatementCacheSize() );
+    assertTrue( config.getBrowseSchemas().isEmpty() );
+    assertTrue( config.getSessionOptions().isEmpty() );
+  }
+
+  @Test
+  public void testOptionsAreTakenOutOfTheUrl() throws Exception {
+    DrillConnectionConfig config = DrillConnectionConfig.parse(
+      "jdbc:drill:zk=local;pooled=true;schema=dfs;columnNames=KEEP;statementCacheSize= 16 ", null );
+    assertEquals( "jdbc:drill:zk=local;schema=dfs", config.getUrl() );
+    assertNull( config.getInfo() );
+    assertTrue( config.isPooled() );
+    assertEquals( DrillConnectionConfig.ColumnNaming.KEEP, config.getColumnNaming() );
+    assertEquals( 16, config.getStatementCacheSize() );
+  }
+
+  @Test
+  public void testOptionsAreTakenOutOfTheProperties() throws Exception {
+    Properties info = new Properties();
+    info.setProperty( "user", "drill" );
+    info.setProperty( DrillConnectionConfig.OPTION_METADATA_CACHE_TTL, "30" );
+    DrillConnectionConfig config = DrillConnectionConfig.parse( "jdbc:drill:zk=local", info );
+    assertEquals( Collections.singleton( "user" ), config.getInfo().stringPropertyNames() );
+    assertEquals( 2, info.size() );
+    assertEquals( 30000L, config.getMetadataCacheTtlMillis() );
+  }
+
+  @Test
+  public void testNegativeTtlsTurnCachingOff() throws Exception {
+    DrillConnectionConfig config =
+      DrillConnectionConfig.parse( "jdbc:drill:zk=local;metadataCacheTtl=-5;drillbitDiscoveryTtl=-5", null );
+    assertEquals( 0L, config.getMetadataCacheTtlMillis() );
+    assertEquals( 0L, config.getDrillbitDiscoveryTtlMillis() );
+  }
+
+  @Test
+  public void testEmptyOptionsAreNotSet() throws Exception {
+    DrillConnectionConfig config =
+      DrillConnectionConfig.parse( "jdbc:drill:zk=local;pooled;statementCacheSize;schema=dfs", null );
+    assertEquals( "jdbc:drill:zk=local;schema=dfs", config.getUrl() );
+    assertFalse( config.isPooled() );
+    assertEquals( 0, config.getStatementCacheSize() );
+  }
+
+  @Test
+  public void testInvalidOptions() {
+    try {
+      DrillConnectionConfig.parse( "jdbc:drill:zk=local;poolMaxSize=many", null );
+      fail( "accepted an invalid number" );
+    } catch ( SQLException e ) {
+      assertEquals( "Invalid value for option poolMaxSize: many", e.getMessage() );
+    }
+    try {
+      DrillConnectionConfig.parse( "jdbc:drill:zk=local;columnNames=upper", null );
+      fail( "accepted an invalid column naming" );
+    } catch ( SQLException e ) {
+      assertEquals( "Invalid value for option columnNames: upper", e.getMessage() );
+    }
+  }
+
+  @Test
+  public void testBrowseSchemasAndSessionOptions() throws Exception {
+    Properties info = new Properties();
+    info.setProperty( DrillConnectionConfig.OPTION_BROWSE_SCHEMAS, " dfs.%, ,hive " );
+    info.setProperty( DrillConnectionConfig.SESSION_OPTION_PREFIX + "store.format", "parquet" );
+    info.setProperty( DrillConnectionConfig.SESSION_OPTION_PREFIX + "planner.width", " " );
+    DrillConnectionConfig config = DrillConnectionConfig.parse( "jdbc:drill:zk=local", info );
+    assertEquals( Arrays.asList( "dfs.%", "hive" ), config.getBrowseSchemas() );
+    assertEquals( Collections.singletonMap( "store.format", "parquet" ), config.getSessionOptions() );
+    assertTrue( config.getInfo().isEmpty() );
+  }
+
+  @Test
+  public void testOtherUrlsAreKept() throws Exception {
+    String url = "jdbc:hive2://host:10000/default;pooled=true";
+    DrillConnectionConfig config = DrillConnectionConfig.parse( url, null );
+    assertSame( url, config.getUrl() );
+    assertFalse( config.isPooled() );
+  }
+}
@@ -0,0 +1,80 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DrillMetadataQueriesTest {
+
+  private static DrillConnectionConfig config( String browseSchemas, boolean hideSystemSchemas ) throws Exception {
+    Properties info = new Properties();
+    info.setProperty( DrillConnectionConfig.OPTION_BROWSE_SCHEMAS, browseSchemas );
+    info.setProperty( DrillConnectionConfig.OPTION_HIDE_SYSTEM_SCHEMAS, String.valueOf( hideSystemSchemas ) );
+    return DrillConnectionConfig.parse( "jdbc:drill:zk=local", info );
+  }
+
+  private static String where( String sql ) {
+    int start = sql.indexOf( " WHERE " );
+    return start < 0 ? "" : sql.substring( start + 1, sql.indexOf( " ORDER BY " ) );
+  }
+
+  @Test
+  public void testNotFiltered() throws Exception {
+    assertFalse( DrillMetadataQueries.isFiltered( DrillConnectionConfig.DEFAULT ) );
+    assertTrue( DrillMetadataQueries.isFiltered( config( "", true ) ) );
+    assertTrue( DrillMetadataQueries.isFiltered( config( "dfs.%", false ) ) );
+  }
+
+  @Test
+  public void testLiteral() {
+    assertEquals( "'dfs.tmp'", DrillMetadataQueries.literal( "dfs.tmp" ) );
+    assertEquals( "'it''s'' OR ''1''=''1'", DrillMetadataQueries.literal( "it's' OR '1'='1" ) );
+  }
+
+  @Test
+  public void testSchemasHidesSystemSchemas() throws Exception {
+    DrillConnectionConfig config = config( "", true );
+    assertEquals( "WHERE SCHEMA_NAME NOT IN ('sys', 'INFORMATION_SCHEMA')",
+      where( DrillMetadataQueries.getSchemasSql( config, null, null ) ) );
+    assertEquals( "WHERE SCHEMA_NAME LIKE 'dfs%' ESCAPE '\\' AND SCHEMA_NAME NOT IN ('sys', 'INFORMATION_SCHEMA')",
+      where( DrillMetadataQueries.getSchemasSql( config, null, "dfs%" ) ) );
+    assertEquals( "WHERE SCHEMA_NAME LIKE 's_s' ESCAPE '\\' AND SCHEMA_NAME NOT IN ('sys', 'INFORMATION_SCHEMA')",
+      where( DrillMetadataQueries.getSchemasSql( config, null, "s_s" ) ) );
+  }
+
+  @Test
+  public void testSchemaByNameIsNotFiltered() throws Exception {
+    DrillConnectionConfig config = config( "dfs.%, hive", true );
+    assertEquals( "WHERE SCHEMA_NAME = 'sys'", where( DrillMetadataQueries.getSchemasSql( config, null, "sys" ) ) );
+    assertEquals( "WHERE CATALOG_NAME = 'DRILL' AND SCHEMA_NAME = 'cp'",
+      where( DrillMetadataQueries.getSchemasSql( config, "DRILL", "cp" ) ) );
+  }
+
+  @Test
+  public void testBrowseSchemas() throws Exception {
+    DrillConnectionConfig config = config( "dfs.%, hive", false );
+    assertEquals( "WHERE (SCHEMA_NAME LIKE 'dfs.%' ESCAPE '\\' OR SCHEMA_NAME LIKE 'hive' ESCAPE '\\')",
+      where( DrillMetadataQueries.getSchemasSql( config, null, null ) ) );
+    assertEquals( "WHERE SCHEMA_NAME LIKE '%' ESCAPE '\\'"
+        + " AND (SCHEMA_NAME LIKE 'dfs.%' ESCAPE '\\' OR SCHEMA_NAME LIKE 'hive' ESCAPE '\\')",
+      where( DrillMetadataQueries.getSchemasSql( config, null, "%" ) ) );
+  }
+
+  @Test
+  public void testTables() throws Exception {
+    DrillConnectionConfig config = config( "", true );
+    String sql = DrillMetadataQueries.getTablesSql( config, null, "dfs.tmp", "o'brien%",
+      new String[]{ "TABLE", "VIEW" } );
+    assertEquals( "WHERE TABLE_SCHEMA = 'dfs.tmp' AND TABLE_NAME LIKE 'o''brien%' ESCAPE '\\'"
+      + " AND TABLE_TYPE IN ('TABLE', 'VIEW')", where( sql ) );
+    assertTrue( sql.startsWith( "SELECT TABLE_CATALOG AS TABLE_CAT, TABLE_SCHEMA AS TABLE_SCHEM, TABLE_NAME," ) );
+    assertFalse( sql.contains( "?" ) );
+
+    assertEquals( "WHERE TABLE_SCHEMA NOT IN ('sys', 'INFORMATION_SCHEMA') AND TABLE_NAME = 'orders'",
+      where( DrillMetadataQueries.getTablesSql( config, null, null, "orders", null ) ) );
+  }
+}
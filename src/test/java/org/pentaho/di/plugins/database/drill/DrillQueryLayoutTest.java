@@ -0,0 +1,46 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.junit.Test;
+import org.pentaho.di.core.Const;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DrillQueryLayoutTest {
+
+  @Test
+  public void testIsQuery() {
+    assertTrue( DrillQueryLayout.isQuery( "SELECT * FROM dfs.tmp.orders" ) );
+    assertTrue( DrillQueryLayout.isQuery( "  ( select 1 )" ) );
+    assertTrue( DrillQueryLayout.isQuery( "WITH t AS ( SELECT 1 AS a )\nSELECT a FROM t" ) );
+    assertTrue( DrillQueryLayout.isQuery( "values ( 1 )" ) );
+    assertFalse( DrillQueryLayout.isQuery( "SHOW TABLES" ) );
+    assertFalse( DrillQueryLayout.isQuery( "SELECTED" ) );
+    assertFalse( DrillQueryLayout.isQuery( null ) );
+  }
+
+  @Test
+  public void testNormalizeWhiteSpaceAndComments() {
+    assertEquals( "SELECT a, b FROM t WHERE a = 1",
+      DrillQueryLayout.normalize( "  SELECT a,\n\tb -- the columns\nFROM t /* the table */ WHERE   a = 1 ;\n" ) );
+    assertEquals( "SELECT 1", DrillQueryLayout.normalize( "SELECT 1 -- no new line" ) );
+    assertEquals( "SELECT 1", DrillQueryLayout.normalize( "SELECT 1;;" ) );
+  }
+
+  @Test
+  public void testNormalizeKeepsQuotesAndCase() {
+    assertEquals( "SELECT 'a  -- b' AS \"x  y\" FROM `dfs`.`my  dir`",
+      DrillQueryLayout.normalize( "SELECT 'a  -- b'  AS \"x  y\"\nFROM `dfs`.`my  dir`" ) );
+    assertFalse( DrillQueryLayout.normalize( "select a from T" ).equals(
+      DrillQueryLayout.normalize( "SELECT a FROM t" ) ) );
+  }
+
+  @Test
+  public void testGetProbeSql() {
+    assertEquals( "SELECT * FROM (" + Const.CR + "SELECT a FROM t" + Const.CR + ") LIMIT 0",
+      DrillQueryLayout.getProbeSql( "SELECT a FROM t;\n" ) );
+    assertEquals( "SELECT * FROM (" + Const.CR + "SELECT a FROM t -- comment" + Const.CR + ") LIMIT 0",
+      DrillQueryLayout.getProbeSql( "SELECT a FROM t -- comment" ) );
+  }
+}
@@ -0,0 +1,110 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DrillStatementCacheTest {
+
+  private final List<String> events = new ArrayList<String>();
+
+  private static List<Object> key( String sql ) {
+    return DrillStatementCache.getKey( sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0 );
+  }
+
+  /**
+   * @return a Drill statement that records the calls made to it, except getResultSet
+   */
+  private PreparedStatement statement( final String name ) {
+    return (PreparedStatement) Proxy.newProxyInstance( PreparedStatement.class.getClassLoader(),
+      new Class<?>[]{ PreparedStatement.class }, new InvocationHandler() {
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+          if ( method.getName().equals( "getResultSet" ) ) {
+            return null;
+          }
+          events.add( method.getName() + ( args == null ? "" : Arrays.asList( args ) ) + " " + name );
+          return null;
+        }
+      } );
+  }
+
+  @Test
+  public void testKey() {
+    assertEquals( key( "SELECT 1" ), key( "SELECT 1" ) );
+    assertFalse( key( "SELECT 1" ).equals( key( "SELECT 2" ) ) );
+    assertFalse( key( "SELECT 1" ).equals(
+      DrillStatementCache.getKey( "SELECT 1", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY, 0 ) ) );
+  }
+
+  @Test
+  public void testTake() {
+    DrillStatementCache cache = new DrillStatementCache( 2 );
+    PreparedStatement statement = statement( "a" );
+    assertNull( cache.take( key( "a" ) ) );
+    assertTrue( cache.offer( key( "a" ), statement ) );
+    assertSame( statement, cache.take( key( "a" ) ) );
+    assertNull( cache.take( key( "a" ) ) );
+    assertEquals( 0, cache.size() );
+    assertTrue( events.isEmpty() );
+  }
+
+  @Test
+  public void testReleaseResetsTheStatement() {
+    DrillStatementCache cache = new DrillStatementCache( 2 );
+    assertTrue( cache.release( key( "a" ), statement( "a" ) ) );
+    assertEquals( Arrays.asList( "clearParameters a", "setMaxRows[0] a", "setFetchSize[0] a", "setQueryTimeout[0] a" ),
+      events );
+    assertEquals( 1, cache.size() );
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    DrillStatementCache cache = new DrillStatementCache( 2 );
+    assertTrue( cache.offer( key( "a" ), statement( "a" ) ) );
+    assertTrue( cache.offer( key( "b" ), statement( "b" ) ) );
+    assertTrue( cache.offer( key( "c" ), statement( "c" ) ) );
+    assertEquals( 2, cache.size() );
+    assertEquals( Collections.singletonList( "close a" ), events );
+    assertNull( cache.take( key( "a" ) ) );
+
+    // b is used again and goes back, so c is now the least recently used
+    cache.offer( key( "b" ), cache.take( key( "b" ) ) );
+    assertTrue( cache.offer( key( "d" ), statement( "d" ) ) );
+    assertEquals( Arrays.asList( "close a", "close c" ), events );
+  }
+
+  @Test
+  public void testDuplicateIsNotCached() {
+    DrillStatementCache cache = new DrillStatementCache( 2 );
+    assertTrue( cache.offer( key( "a" ), statement( "a" ) ) );
+    assertFalse( cache.offer( key( "a" ), statement( "a2" ) ) );
+    assertEquals( 1, cache.size() );
+    assertTrue( events.isEmpty() );
+  }
+
+  @Test
+  public void testClose() {
+    DrillStatementCache cache = new DrillStatementCache( 2 );
+    cache.offer( key( "a" ), statement( "a" ) );
+    cache.offer( key( "b" ), statement( "b" ) );
+    cache.close();
+    assertEquals( 0, cache.size() );
+    assertEquals( Arrays.asList( "close a", "close b" ), events );
+    assertFalse( cache.offer( key( "c" ), statement( "c" ) ) );
+  }
+}
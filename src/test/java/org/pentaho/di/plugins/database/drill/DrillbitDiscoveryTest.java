@@ -0,0 +1,96 @@
+package org.pentaho.di.plugins.database.drill;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class DrillbitDiscoveryTest {
+
+  @Test
+  public void testGetCluster() {
+    assertEquals( "jdbc:drill:zk=zk1:2181,zk2:2181/drill/prod",
+      DrillbitDiscovery.getCluster( "jdbc:drill:zk=zk1:2181,zk2:2181/drill/prod;schema=dfs" ) );
+    assertEquals( "jdbc:drill:zk=local", DrillbitDiscovery.getCluster( "jdbc:drill:zk=local" ) );
+    assertNull( DrillbitDiscovery.getCluster( "jdbc:drill:drillbit=host:31010" ) );
+    assertNull( DrillbitDiscovery.getCluster( null ) );
+  }
+
+  @Test
+  public void testGetDirectEndpoints() {
+    assertEquals( Arrays.asList( "a:31010", "b:31011" ),
+      DrillbitDiscovery.getDirectEndpoints( "jdbc:drill:drillbit=a:31010, b:31011;schema=dfs" ) );
+    assertNull( DrillbitDiscovery.getDirectEndpoints( "jdbc:drill:zk=local" ) );
+  }
+
+  @Test
+  public void testGetDirectUrl() {
+    assertEquals( "jdbc:drill:drillbit=a:31010;schema=dfs",
+      DrillbitDiscovery.getDirectUrl( "jdbc:drill:zk=zk1:2181/drill/prod;schema=dfs", "a:31010" ) );
+    assertEquals( "jdbc:drill:drillbit=b:31010",
+      DrillbitDiscovery.getDirectUrl( "jdbc:drill:drillbit=a:31010,b:31010", "b:31010" ) );
+  }
+
+  @Test
+  public void testDirectDrillbitsFailOver() throws Exception {
+    List<String> urls = new ArrayList<String>();
+    Driver driver = driver( urls, "jdbc:drill:drillbit=a:31010;schema=dfs" );
+    Connection connection = DrillbitDiscovery.connect( driver,
+      DrillConnectionConfig.parse( "jdbc:drill:drillbit=a:31010,b:31010;schema=dfs", null ) );
+    assertNotNull( connection );
+    assertEquals( Arrays.asList( "jdbc:drill:drillbit=a:31010;schema=dfs", "jdbc:drill:drillbit=b:31010;schema=dfs" ),
+      urls );
+  }
+
+  @Test
+  public void testDirectDrillbitsAllDown() throws Exception {
+    List<String> urls = new ArrayList<String>();
+    Driver driver = driver( urls, "jdbc:drill:drillbit=a:31010", "jdbc:drill:drillbit=b:31010" );
+    try {
+      DrillbitDiscovery.connect( driver, DrillConnectionConfig.parse( "jdbc:drill:drillbit=a:31010,b:31010", null ) );
+      fail( "connected to a drillbit that is down" );
+    } catch ( SQLException e ) {
+      assertEquals( "down: jdbc:drill:drillbit=b:31010", e.getMessage() );
+    }
+    assertEquals( 2, urls.size() );
+  }
+
+  /**
+   * @return a driver that records the URLs it is asked to connect to, and fails for the given ones
+   */
+  private static Driver driver( final List<String> urls, final String... down ) {
+    return (Driver) Proxy.newProxyInstance( Driver.class.getClassLoader(), new Class<?>[]{ Driver.class },
+      new InvocationHandler() {
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+          if ( !method.getName().equals( "connect" ) ) {
+            throw new UnsupportedOperationException( method.getName() );
+          }
+          String url = (String) args[0];
+          urls.add( url );
+          if ( Arrays.asList( down ).contains( url ) ) {
+            throw new SQLException( "down: " + url );
+          }
+          return Proxy.newProxyInstance( Connection.class.getClassLoader(), new Class<?>[]{ Connection.class },
+            new InvocationHandler() {
+              @Override
+              public Object invoke( Object proxy, Method method, Object[] args ) {
+                return null;
+              }
+            } );
+        }
+      } );
+  }
+}
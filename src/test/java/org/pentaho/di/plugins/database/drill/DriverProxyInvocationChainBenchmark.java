@@ -0,0 +1,157 @@
+package org.pentaho.di.plugins.database.drill;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Microbenchmark for the per-call overhead of the ResultSet proxy in {@link DriverProxyInvocationChain}. It compares
+ * the method-name comparison chain the handlers used to run on every call with the current dispatch table lookup, and
+ * with the delegating {@link DrillResultSetWrapper} as a reference. All variants sit on the same stub Drill result
+ * set, so the differences are the cost of the compatibility layer itself.
+ * <p/>
+ * Run with: java -cp build/classes/main:build/classes/test org.pentaho.di.plugins.database.drill
+ * .DriverProxyInvocationChainBenchmark [iterations]
+ */
+public class DriverProxyInvocationChainBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  public static void main( String[] args ) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt( args[0] ) : 10000000;
+
+    ResultSet drillResultSet = stub( ResultSet.class );
+    ResultSet stringCompare = (ResultSet) Proxy.newProxyInstance( ResultSet.class.getClassLoader(),
+      new Class[]{ ResultSet.class }, new StringCompareResultSetHandler( drillResultSet ) );
+    ResultSet dispatchTable = proxiedResultSet( drillResultSet );
+    ResultSet wrapper = new DrillResultSetWrapper( drillResultSet, null,
+      new DrillConnectionWrapper( stub( Connection.class ), new DrillCapabilities( "stub" ),
+      DrillConnectionConfig.DEFAULT ) );
+
+    for ( int round = 1; round <= ROUNDS; round++ ) {
+      System.out.println( "Round " + round + " (" + iterations + " calls each)" );
+      report( "  stub Drill result set", run( drillResultSet, iterations ), iterations );
+      report( "  proxy, string comparisons", run( stringCompare, iterations ), iterations );
+      report( "  proxy, dispatch table", run( dispatchTable, iterations ), iterations );
+      report( "  delegating wrapper", run( wrapper, iterations ), iterations );
+    }
+  }
+
+  private static long run( ResultSet rs, int iterations ) throws Exception {
+    long sink = 0;
+    long start = System.nanoTime();
+    for ( int i = 0; i < iterations; i++ ) {
+      sink += rs.getInt( 1 );
+      if ( rs.wasNull() ) {
+        sink--;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if ( sink == 42 ) {
+      System.out.println();
+    }
+    return elapsed;
+  }
+
+  private static void report( String name, long nanos, int iterations ) {
+    // Two calls (getInt and wasNull) per iteration
+    System.out.printf( "%-30s %8.2f ns/call%n", name, nanos / ( 2.0 * iterations ) );
+  }
+
+  /**
+   * Builds the proxy chain on top of a stub driver and returns the ResultSet proxy it hands out.
+   */
+  private static ResultSet proxiedResultSet( final ResultSet drillResultSet ) throws Exception {
+    final Statement drillStatement = (Statement) Proxy.newProxyInstance( Statement.class.getClassLoader(),
+      new Class[]{ Statement.class }, new InvocationHandler() {
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+          return "executeQuery".equals( method.getName() ) ? drillResultSet : defaultValue( method );
+        }
+      } );
+    final Connection drillConnection = (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(),
+      new Class[]{ Connection.class }, new InvocationHandler() {
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+          return "createStatement".equals( method.getName() ) ? drillStatement : defaultValue( method );
+        }
+      } );
+    Driver drillDriver = (Driver) Proxy.newProxyInstance( Driver.class.getClassLoader(),
+      new Class[]{ Driver.class }, new InvocationHandler() {
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+          return "connect".equals( method.getName() ) ? drillConnection : defaultValue( method );
+        }
+      } );
+    Connection connection = DriverProxyInvocationChain.getProxy( Driver.class, drillDriver )
+      .connect( "jdbc:drill:zk=local", new Properties() );
+    return connection.createStatement().executeQuery( "SELECT 1" );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static <T> T stub( Class<T> intf ) {
+    return (T) Proxy.newProxyInstance( intf.getClassLoader(), new Class[]{ intf }, new InvocationHandler() {
+      @Override
+      public Object invoke( Object proxy, Method method, Object[] args ) {
+        return defaultValue( method );
+      }
+    } );
+  }
+
+  private static Object defaultValue( Method method ) {
+    Class<?> type = method.getReturnType();
+    if ( type == int.class ) {
+      return 1;
+    } else if ( type == long.class ) {
+      return 1L;
+    } else if ( type == boolean.class ) {
+      return Boolean.FALSE;
+    } else if ( type == String.class ) {
+      return "value";
+    } else if ( type.isInterface() && type.getName().startsWith( "java.sql." ) ) {
+      return stub( type );
+    }
+    return null;
+  }
+
+  /**
+   * The ResultSet handler as it was before the dispatch tables: every call runs the method name comparisons before it
+   * is forwarded.
+   */
+  private static class StringCompareResultSetHandler implements InvocationHandler {
+
+    private final ResultSet rs;
+
+    StringCompareResultSetHandler( ResultSet rs ) {
+      this.rs = rs;
+    }
+
+    @Override
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      try {
+        String methodName = method.getName();
+        if ( "getString".equals( methodName ) && args != null && args.length == 1 && args[0] instanceof String ) {
+          return rs.getString( (String) args[0] );
+        } else if ( "getType".equals( methodName ) ) {
+          return ResultSet.TYPE_FORWARD_ONLY;
+        } else {
+          Object o = method.invoke( rs, args );
+          if ( o instanceof ResultSetMetaData ) {
+            return o;
+          } else {
+            return o;
+          }
+        }
+      } catch ( InvocationTargetException ite ) {
+        throw ite.getCause();
+      }
+    }
+  }
+}